@@ -0,0 +1,128 @@
+import se.klinghammer.neuralNetworkLibrary.FitnessComputer;
+import se.klinghammer.neuralNetworkLibrary.Individual;
+import se.klinghammer.neuralNetworkLibrary.Population;
+import se.klinghammer.neuralNetworkLibrary.RandomUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Minimal timing harness: warms up, then reports the median time per operation over a number of rounds.
+// runXorPopulation drives a whole population for the benchmarks that measure generations
+public final class Benchmark {
+    // Results are accumulated here so the JIT can not remove the measured work
+    public static double sink;
+
+    private Benchmark() {
+    }
+
+    public static double nanosPerOperation(Runnable operation, int operationsPerRound, int warmupRounds, int rounds) {
+        for (int i = 0; i < warmupRounds; i++) {
+            runRound(operation, operationsPerRound);
+        }
+
+        double[] results = new double[rounds];
+
+        for (int i = 0; i < rounds; i++) {
+            results[i] = (double) runRound(operation, operationsPerRound) / operationsPerRound;
+        }
+
+        Arrays.sort(results);
+        return results[rounds / 2];
+    }
+
+    private static long runRound(Runnable operation, int operationsPerRound) {
+        long start = System.nanoTime();
+
+        for (int i = 0; i < operationsPerRound; i++) {
+            operation.run();
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    public static void print(String name, double nanosPerOperation) {
+        System.out.printf("%-40s %12.1f ns/op%n", name, nanosPerOperation);
+    }
+
+    // Called after every reproduction of runXorPopulation. generation counts from 0, nanos is the time from the end of
+    // one fitness evaluation to the start of the next
+    public interface GenerationHook {
+        void afterReproduction(Population population, int generation, long nanos);
+    }
+
+    // Evolves a population of size individuals with two inputs and one output on XOR for the given number of
+    // reproductions, seeded with 42. Runs on a copy of the pendulum config in a temporary directory, which is deleted
+    // afterwards, with every "key=value" of settings replacing the line of its key
+    public static Population runXorPopulation(String[] settings, int size, int generations, GenerationHook hook) throws IOException {
+        Path directory = Files.createTempDirectory("benchmark");
+
+        try {
+            String config = Files.readString(Path.of("examples/pendulum/resources/network.properties"));
+
+            for (String setting : settings) {
+                String key = setting.substring(0, setting.indexOf('='));
+                Matcher line = Pattern.compile("(?m)^" + Pattern.quote(key) + "=.*$").matcher(config);
+                config = line.find() ? line.replaceAll(Matcher.quoteReplacement(setting)) : config + System.lineSeparator() + setting;
+            }
+
+            Files.writeString(directory.resolve("network.properties"), config);
+            Population.setConfigPath(directory.resolve("network").toString());
+            RandomUtil.setSeed(42);
+
+            Population population = new Population(size, 2, 1, directory.resolve("population.json").toString(), true);
+
+            population.setFitnessComputer(new FitnessComputer() {
+                private long start = System.nanoTime();
+
+                @Override
+                public void start() {
+                    int generation = population.getGenerations();
+
+                    if (generation > 0) {
+                        hook.afterReproduction(population, generation - 1, System.nanoTime() - start);
+                    }
+
+                    for (Individual individual : population.getIndividuals()) {
+                        individual.setFitness(xorFitness(individual));
+                    }
+
+                    start = System.nanoTime();
+                    population.hasCalculatedFitness();
+                }
+
+                @Override
+                public void stop() {
+                }
+            });
+
+            population.run(generations + 1);
+
+            return population;
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static double xorFitness(Individual individual) {
+        double error = 0;
+
+        for (int a = 0; a <= 1; a++) {
+            for (int b = 0; b <= 1; b++) {
+                double output = individual.getNetwork().propagate(new double[]{a, b})[0];
+                error += Math.abs(output - (a ^ b));
+            }
+        }
+
+        return 4 - error;
+    }
+}
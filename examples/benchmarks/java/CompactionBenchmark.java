@@ -0,0 +1,50 @@
+import se.klinghammer.neuralNetworkLibrary.CompactionStats;
+import se.klinghammer.neuralNetworkLibrary.Individual;
+import se.klinghammer.neuralNetworkLibrary.LinkGene;
+import se.klinghammer.neuralNetworkLibrary.Population;
+
+import java.io.IOException;
+
+// Genome size, generation time and what compaction removes per generation, with compaction off and on
+public class CompactionBenchmark {
+    private static final int POPULATION_SIZE = 1000;
+    private static final int GENERATIONS = 300;
+
+    public static void main(String[] args) throws IOException {
+        run("compaction off", "compactDisabledLinksAfter=0", "maxDisabledLinkRatio=1", "removeDeadNeurons=false");
+        run("compaction on", "compactDisabledLinksAfter=20", "maxDisabledLinkRatio=0.25", "removeDeadNeurons=true");
+    }
+
+    private static void run(String name, String... settings) throws IOException {
+        long[] removedLinks = new long[1];
+        long[] reclaimedBytes = new long[1];
+        long start = System.nanoTime();
+
+        Population population = Benchmark.runXorPopulation(settings, POPULATION_SIZE, GENERATIONS, (current, generation, nanos) -> {
+            CompactionStats stats = current.getCompactionStats();
+
+            if (stats != null) {
+                removedLinks[0] += stats.getRemovedLinks();
+                reclaimedBytes[0] += stats.getReclaimedBytes();
+            }
+        });
+
+        double millis = (System.nanoTime() - start) / 1e6;
+        int links = 0;
+        int disabled = 0;
+
+        for (Individual individual : population.getIndividuals()) {
+            for (LinkGene link : individual.getNetwork().getLinks()) {
+                links++;
+
+                if (!link.isEnabled()) {
+                    disabled++;
+                }
+            }
+        }
+
+        System.out.printf("%-20s %8.1f links/genome %5.1f%% disabled %8.1f ms/generation %10.1f links/generation removed %10.1f KB/generation reclaimed%n",
+                name, (double) links / POPULATION_SIZE, 100.0 * disabled / Math.max(1, links), millis / GENERATIONS,
+                (double) removedLinks[0] / GENERATIONS, reclaimedBytes[0] / 1024.0 / GENERATIONS);
+    }
+}
@@ -0,0 +1,81 @@
+import se.klinghammer.neuralNetworkLibrary.Activation;
+import se.klinghammer.neuralNetworkLibrary.Genome;
+import se.klinghammer.neuralNetworkLibrary.LinkGene;
+import se.klinghammer.neuralNetworkLibrary.NeuronGene;
+import se.klinghammer.neuralNetworkLibrary.Population;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+// Cost and garbage of Genome.createsCycle for random link candidates between hidden neurons
+public class CycleDetectionBenchmark {
+    private static final int AMOUNT_OF_INPUTS = 4;
+    private static final int AMOUNT_OF_OUTPUTS = 1;
+    private static final int LINKS_PER_NEURON = 3;
+
+    public static void main(String[] args) {
+        Population.setConfigPath("examples/pendulum/resources/network");
+
+        for (int neurons : new int[]{50, 500, 5000}) {
+            Genome genome = createRandomGenome(neurons, new Random(42));
+            Random random = new Random(7);
+            int hidden = neurons - AMOUNT_OF_INPUTS - AMOUNT_OF_OUTPUTS;
+            int firstHiddenId = AMOUNT_OF_INPUTS + AMOUNT_OF_OUTPUTS;
+
+            Runnable query = () -> {
+                int inputId = firstHiddenId + random.nextInt(hidden);
+                int outputId = firstHiddenId + random.nextInt(hidden);
+
+                if (genome.createsCycle(inputId, outputId)) {
+                    Benchmark.sink++;
+                }
+            };
+
+            String name = "createsCycle, " + neurons + " neurons";
+            Benchmark.print(name, Benchmark.nanosPerOperation(query, 20_000, 10, 15));
+            System.out.printf("%-40s %12.1f bytes/op%n", name, bytesPerOperation(query, 20_000));
+        }
+    }
+
+    private static double bytesPerOperation(Runnable operation, int operations) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+
+        for (int i = 0; i < operations; i++) {
+            operation.run();
+        }
+
+        return (double) (threads.getCurrentThreadAllocatedBytes() - before) / operations;
+    }
+
+    // Random acyclic genome with LINKS_PER_NEURON links per neuron on average
+    static Genome createRandomGenome(int neurons, Random random) {
+        Genome genome = new Genome(AMOUNT_OF_INPUTS, AMOUNT_OF_OUTPUTS);
+        int firstHiddenId = AMOUNT_OF_INPUTS + AMOUNT_OF_OUTPUTS;
+
+        for (int id = firstHiddenId; id < neurons; id++) {
+            genome.addNeuron(new NeuronGene(id, 0, Activation.Tanh));
+        }
+
+        int links = 0;
+
+        while (links < neurons * LINKS_PER_NEURON) {
+            int inputId = random.nextInt(neurons);
+            int outputId = AMOUNT_OF_INPUTS + random.nextInt(neurons - AMOUNT_OF_INPUTS);
+
+            // Outputs do not have outgoing links
+            if (inputId >= AMOUNT_OF_INPUTS && inputId < firstHiddenId) {
+                continue;
+            }
+
+            if (inputId == outputId || genome.findLink(inputId, outputId) != null || genome.createsCycle(inputId, outputId)) {
+                continue;
+            }
+
+            genome.addLink(new LinkGene(inputId, outputId, random.nextGaussian()));
+            links++;
+        }
+
+        return genome;
+    }
+}
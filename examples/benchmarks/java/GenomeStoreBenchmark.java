@@ -0,0 +1,113 @@
+import se.klinghammer.neuralNetworkLibrary.Activation;
+import se.klinghammer.neuralNetworkLibrary.Genome;
+import se.klinghammer.neuralNetworkLibrary.GenomeStore;
+import se.klinghammer.neuralNetworkLibrary.LinkGene;
+import se.klinghammer.neuralNetworkLibrary.NeuronGene;
+import se.klinghammer.neuralNetworkLibrary.Population;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Heap used by a population of small genomes as objects versus packed into a GenomeStore, and the cost of evaluating them.
+// The population size is the first argument, run with a heap large enough for the object version
+public class GenomeStoreBenchmark {
+    private static final int AMOUNT_OF_INPUTS = 4;
+    private static final int AMOUNT_OF_OUTPUTS = 2;
+    private static final int HIDDEN_NEURONS = 4;
+    private static final int LINKS = 16;
+
+    public static void main(String[] args) {
+        Population.setConfigPath("examples/pendulum/resources/network");
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        Random random = new Random(42);
+
+        long before = usedHeap();
+        List<Genome> genomes = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            genomes.add(createRandomGenome(random));
+        }
+
+        long objectHeap = usedHeap() - before;
+
+        before = usedHeap();
+        GenomeStore store = new GenomeStore(AMOUNT_OF_INPUTS, AMOUNT_OF_OUTPUTS);
+
+        for (Genome genome : genomes) {
+            store.add(genome);
+        }
+
+        long storeHeap = usedHeap() - before;
+
+        System.out.printf("%-40s %12.1f bytes/genome heap%n", "Genome objects", (double) objectHeap / size);
+        System.out.printf("%-40s %12.1f bytes/genome heap %8.1f bytes/genome off heap%n", "GenomeStore",
+                (double) storeHeap / size, (double) store.getOffHeapBytes() / size);
+
+        double[] inputs = {0.5, -0.25, 1, 0.1};
+        double[] outputs = new double[AMOUNT_OF_OUTPUTS];
+        GenomeStore.View[] views = new GenomeStore.View[size];
+
+        for (int i = 0; i < size; i++) {
+            views[i] = store.view(i);
+        }
+
+        int[] next = new int[1];
+
+        // Both through NetworkEvaluator.propagate, evaluation code does not need to know which one it has
+        Benchmark.print("Genome.propagate", Benchmark.nanosPerOperation(() -> {
+            genomes.get(next[0]++ % size).propagate(inputs, outputs);
+            Benchmark.sink += outputs[0];
+        }, size, 2, 5));
+
+        Benchmark.print("GenomeStore.View.propagate", Benchmark.nanosPerOperation(() -> {
+            views[next[0]++ % size].propagate(inputs, outputs);
+            Benchmark.sink += outputs[0];
+        }, size, 2, 5));
+
+        Benchmark.print("GenomeStore.materialize", Benchmark.nanosPerOperation(() -> {
+            Benchmark.sink += store.materialize(next[0]++ % size).getNeuronsSize();
+        }, Math.min(size, 50_000), 2, 5));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static Genome createRandomGenome(Random random) {
+        Genome genome = new Genome(AMOUNT_OF_INPUTS, AMOUNT_OF_OUTPUTS);
+        int firstHiddenId = AMOUNT_OF_INPUTS + AMOUNT_OF_OUTPUTS;
+        int neurons = firstHiddenId + HIDDEN_NEURONS;
+
+        for (int id = firstHiddenId; id < neurons; id++) {
+            genome.addNeuron(new NeuronGene(id, random.nextGaussian(), Activation.Tanh));
+        }
+
+        int links = 0;
+
+        while (links < LINKS) {
+            int inputId = random.nextInt(neurons);
+            int outputId = AMOUNT_OF_INPUTS + random.nextInt(neurons - AMOUNT_OF_INPUTS);
+
+            // Outputs do not have outgoing links
+            if (inputId >= AMOUNT_OF_INPUTS && inputId < firstHiddenId) {
+                continue;
+            }
+
+            if (inputId == outputId || genome.findLink(inputId, outputId) != null || genome.createsCycle(inputId, outputId)) {
+                continue;
+            }
+
+            genome.addLink(new LinkGene(inputId, outputId, random.nextGaussian()));
+            links++;
+        }
+
+        return genome;
+    }
+}
@@ -0,0 +1,55 @@
+import se.klinghammer.neuralNetworkLibrary.Individual;
+import se.klinghammer.neuralNetworkLibrary.Population;
+import se.klinghammer.neuralNetworkLibrary.RandomUtil;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+// Time and garbage of the mutation phase of a generation: every individual is copied and mutated with 25 rolls
+public class MutationBenchmark {
+    private static final int POPULATION_SIZE = 10_000;
+    private static final int ROLLS = 25;
+    private static final int WARMUP_PHASES = 20;
+    private static final int PHASES = 10;
+
+    public static void main(String[] args) throws IOException {
+        Population.setConfigPath("examples/pendulum/resources/network");
+        RandomUtil.setSeed(42);
+
+        String fileName = Files.createTempFile("benchmark", ".json").toString();
+        List<Individual> individuals = new Population(POPULATION_SIZE, 4, 2, fileName, true).getIndividuals();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        // The genomes keep growing, so the later phases mutate larger networks
+        for (int phase = 0; phase < WARMUP_PHASES + PHASES; phase++) {
+            long bytes = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            List<Individual> offspring = new ArrayList<>(POPULATION_SIZE);
+
+            for (Individual individual : individuals) {
+                Individual child = new Individual(individual.getNetwork().copy(), individual.getId());
+                child.mutate(ROLLS, false);
+                offspring.add(child);
+            }
+
+            long nanos = System.nanoTime() - start;
+            bytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+            individuals = offspring;
+
+            if (phase >= WARMUP_PHASES) {
+                int links = 0;
+
+                for (Individual individual : individuals) {
+                    links += individual.getNetwork().getLinks().size();
+                }
+
+                System.out.printf("%-40s %12.1f ms/phase %10.1f bytes/individual %8.1f links/genome%n",
+                        "mutate " + POPULATION_SIZE + " x " + ROLLS + " rolls", nanos / 1e6,
+                        (double) bytes / POPULATION_SIZE, (double) links / POPULATION_SIZE);
+            }
+        }
+    }
+}
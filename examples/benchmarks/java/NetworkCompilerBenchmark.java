@@ -0,0 +1,46 @@
+import se.klinghammer.neuralNetworkLibrary.CompiledNetwork;
+import se.klinghammer.neuralNetworkLibrary.Genome;
+import se.klinghammer.neuralNetworkLibrary.NetworkCompiler;
+import se.klinghammer.neuralNetworkLibrary.NetworkEvaluator;
+import se.klinghammer.neuralNetworkLibrary.Population;
+
+import java.util.Random;
+
+// Genome.propagate against the array interpreter and the generated class for a pendulum champion
+public class NetworkCompilerBenchmark {
+    public static void main(String[] args) {
+        Population.setConfigPath("examples/pendulum/resources/network");
+        Genome genome = PropagationBenchmark.createPendulumGenome(200);
+
+        System.out.println("Neurons: " + genome.getNeuronsSize() + ", links: " + genome.getLinks().size());
+
+        Random random = new Random(42);
+        double[] inputs = new double[4];
+        double[] outputs = new double[1];
+        CompiledNetwork interpreter = genome.compile();
+        NetworkEvaluator generated = NetworkCompiler.compile(interpreter);
+
+        System.out.println("Generated class: " + NetworkCompiler.isGenerated(generated));
+
+        Runnable genomePropagate = () -> {
+            inputs[random.nextInt(4)] = random.nextDouble();
+            Benchmark.sink += genome.propagate(inputs)[0];
+        };
+
+        Runnable interpreterPropagate = () -> {
+            inputs[random.nextInt(4)] = random.nextDouble();
+            interpreter.propagate(inputs, outputs);
+            Benchmark.sink += outputs[0];
+        };
+
+        Runnable generatedPropagate = () -> {
+            inputs[random.nextInt(4)] = random.nextDouble();
+            generated.propagate(inputs, outputs);
+            Benchmark.sink += outputs[0];
+        };
+
+        Benchmark.print("Genome.propagate", Benchmark.nanosPerOperation(genomePropagate, 100_000, 10, 15));
+        Benchmark.print("CompiledNetwork.propagate", Benchmark.nanosPerOperation(interpreterPropagate, 100_000, 10, 15));
+        Benchmark.print("NetworkCompiler (generated)", Benchmark.nanosPerOperation(generatedPropagate, 100_000, 10, 15));
+    }
+}
@@ -0,0 +1,54 @@
+import se.klinghammer.neuralNetworkLibrary.Individual;
+import se.klinghammer.neuralNetworkLibrary.LinkGene;
+import se.klinghammer.neuralNetworkLibrary.NeuronGene;
+import se.klinghammer.neuralNetworkLibrary.Population;
+
+import java.io.IOException;
+
+// Time from the end of one fitness evaluation to the start of the next, speciation included, for several numbers of
+// reproduction threads. The hash of the final genomes has to be the same for every number of threads
+public class ParallelReproductionBenchmark {
+    private static final int POPULATION_SIZE = 10_000;
+    private static final int GENERATIONS = 30;
+    private static final int WARMUP_GENERATIONS = 10;
+
+    public static void main(String[] args) throws IOException {
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        for (int threads : new int[]{1, 2, 4, cores}) {
+            run(threads);
+        }
+    }
+
+    private static void run(int threads) throws IOException {
+        long[] nanos = new long[GENERATIONS];
+
+        Population population = Benchmark.runXorPopulation(new String[]{"reproductionThreads=" + threads}, POPULATION_SIZE,
+                GENERATIONS, (current, generation, time) -> nanos[generation] = time);
+
+        long time = 0;
+
+        for (int generation = WARMUP_GENERATIONS; generation < GENERATIONS; generation++) {
+            time += nanos[generation];
+        }
+
+        System.out.printf("%-40s %8.1f ms/generation   genomes %016x%n", "reproductionThreads=" + threads,
+                time / 1e6 / (GENERATIONS - WARMUP_GENERATIONS), hash(population));
+    }
+
+    private static long hash(Population population) {
+        long hash = 0;
+
+        for (Individual individual : population.getIndividuals()) {
+            for (NeuronGene neuron : individual.getNetwork().getNeurons()) {
+                hash = hash * 31 + neuron.getId() * 17L + Double.hashCode(neuron.getBias()) + neuron.getActivation().ordinal();
+            }
+
+            for (LinkGene link : individual.getNetwork().getLinks()) {
+                hash = hash * 31 + link.convertToLong() + Double.hashCode(link.getWeight()) + (link.isEnabled() ? 1 : 0);
+            }
+        }
+
+        return hash;
+    }
+}
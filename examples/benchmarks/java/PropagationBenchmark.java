@@ -0,0 +1,48 @@
+import se.klinghammer.neuralNetworkLibrary.CompiledNetwork;
+import se.klinghammer.neuralNetworkLibrary.Genome;
+import se.klinghammer.neuralNetworkLibrary.Individual;
+import se.klinghammer.neuralNetworkLibrary.Population;
+import se.klinghammer.neuralNetworkLibrary.RandomUtil;
+
+import java.util.Random;
+
+// Single step inference cost of a pendulum controller (4 inputs, 1 output)
+public class PropagationBenchmark {
+    public static void main(String[] args) {
+        Population.setConfigPath("examples/pendulum/resources/network");
+        Genome genome = createPendulumGenome(200);
+
+        System.out.println("Neurons: " + genome.getNeuronsSize() + ", links: " + genome.getLinks().size());
+
+        Random random = new Random(42);
+        double[] inputs = new double[4];
+        double[] outputs = new double[1];
+        CompiledNetwork network = genome.compile();
+
+        Runnable genomePropagate = () -> {
+            inputs[random.nextInt(4)] = random.nextDouble();
+            Benchmark.sink += genome.propagate(inputs)[0];
+        };
+
+        Runnable compiledPropagate = () -> {
+            inputs[random.nextInt(4)] = random.nextDouble();
+            network.propagate(inputs, outputs);
+            Benchmark.sink += outputs[0];
+        };
+
+        Benchmark.print("Genome.propagate", Benchmark.nanosPerOperation(genomePropagate, 100_000, 10, 15));
+        Benchmark.print("CompiledNetwork.propagate", Benchmark.nanosPerOperation(compiledPropagate, 100_000, 10, 15));
+    }
+
+    static Genome createPendulumGenome(int mutationRolls) {
+        RandomUtil.setSeed(42);
+        Population population = new Population(1, 4, 1, "benchmark.json", true);
+        Individual individual = population.getIndividuals().getFirst();
+
+        for (int i = 0; i < mutationRolls; i++) {
+            individual.mutate(10, false);
+        }
+
+        return individual.getNetwork();
+    }
+}
@@ -0,0 +1,39 @@
+import java.io.IOException;
+
+// Bytes allocated per offspring by Population reproduction, and genes taken from the gene pools, with and without
+// gene pooling
+public class ReproductionAllocationBenchmark {
+    private static final int POPULATION_SIZE = 5000;
+    private static final int GENERATIONS = 40;
+    private static final int WARMUP_GENERATIONS = 20;
+
+    public static void main(String[] args) throws IOException {
+        for (boolean pooling : new boolean[]{false, true}) {
+            long[] allocated = new long[GENERATIONS];
+            long[] reused = new long[GENERATIONS];
+            long[] nanos = new long[GENERATIONS];
+
+            Benchmark.runXorPopulation(new String[]{"genePooling=" + pooling}, POPULATION_SIZE, GENERATIONS,
+                    (population, generation, time) -> {
+                        allocated[generation] = population.getReproduceAllocatedBytes();
+                        reused[generation] = population.getReusedGenes();
+                        nanos[generation] = time;
+                    });
+
+            long bytes = 0;
+            long genes = 0;
+            long time = 0;
+
+            for (int generation = WARMUP_GENERATIONS; generation < GENERATIONS; generation++) {
+                bytes += allocated[generation];
+                genes += reused[generation];
+                time += nanos[generation];
+            }
+
+            int measured = GENERATIONS - WARMUP_GENERATIONS;
+            System.out.printf("%-40s %12.1f bytes/offspring %8.1f reused genes/offspring %8.1f ms/generation%n",
+                    "genePooling=" + pooling, (double) bytes / measured / POPULATION_SIZE,
+                    (double) genes / measured / POPULATION_SIZE, time / 1e6 / measured);
+        }
+    }
+}
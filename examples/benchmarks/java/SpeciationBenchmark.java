@@ -0,0 +1,60 @@
+import se.klinghammer.neuralNetworkLibrary.Population;
+import se.klinghammer.neuralNetworkLibrary.SpeciationStats;
+
+import java.io.IOException;
+
+// Time from the end of one fitness evaluation to the start of the next with exact and approximate speciation, on a
+// large population with a low delta threshold so it splits into many species. Prints the comparisons, how many
+// individuals joined the species of their parent, and how often the audited individuals would have been assigned
+// differently by the exact scan
+public class SpeciationBenchmark {
+    private static final int POPULATION_SIZE = 100_000;
+    private static final int GENERATIONS = 12;
+    private static final int WARMUP_GENERATIONS = 4;
+    private static final double DELTA_THRESHOLD = 0.3;
+
+    public static void main(String[] args) throws IOException {
+        run(false);
+        run(true);
+    }
+
+    private static void run(boolean approximate) throws IOException {
+        long[] nanos = new long[GENERATIONS];
+        long[] comparisons = new long[GENERATIONS];
+        int[] parentMatches = new int[GENERATIONS];
+        int[] audited = new int[GENERATIONS];
+        int[] mismatches = new int[GENERATIONS];
+
+        String[] settings = {"approximateSpeciation=" + approximate, "deltaThreshold=" + DELTA_THRESHOLD};
+        Population population = Benchmark.runXorPopulation(settings, POPULATION_SIZE, GENERATIONS, (current, generation, time) -> {
+            SpeciationStats stats = current.getSpeciationStats();
+
+            nanos[generation] = time;
+            comparisons[generation] = stats.getComparisons();
+            parentMatches[generation] = stats.getParentMatches();
+            audited[generation] = stats.getAudited();
+            mismatches[generation] = stats.getMismatches();
+        });
+
+        long time = 0;
+        long totalComparisons = 0;
+        long totalParentMatches = 0;
+        int totalAudited = 0;
+        int totalMismatches = 0;
+
+        for (int generation = WARMUP_GENERATIONS; generation < GENERATIONS; generation++) {
+            time += nanos[generation];
+            totalComparisons += comparisons[generation];
+            totalParentMatches += parentMatches[generation];
+            totalAudited += audited[generation];
+            totalMismatches += mismatches[generation];
+        }
+
+        int measured = GENERATIONS - WARMUP_GENERATIONS;
+
+        System.out.printf("%-30s %9.1f ms/generation   species %6d   comparisons/individual %8.1f   parent matches %5.1f%%   mismatches %d/%d%n",
+                "approximateSpeciation=" + approximate, time / 1e6 / measured, population.getSpeciesAmount(),
+                (double) totalComparisons / measured / POPULATION_SIZE, 100.0 * totalParentMatches / measured / POPULATION_SIZE,
+                totalMismatches, totalAudited);
+    }
+}
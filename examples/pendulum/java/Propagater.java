@@ -1,26 +1,26 @@
-import se.klinghammer.neuralNetworkLibrary.Genome;
+import se.klinghammer.neuralNetworkLibrary.CompiledNetwork;
 import se.klinghammer.neuralNetworkLibrary.Individual;
 
 public class Propagater {
     private final Individual individual;
 
-    private final Genome genome;
+    private final CompiledNetwork network;
 
     private final NetworkAdapter networkAdapter;
 
     private static final int outputAmount = 1;
 
-    private double[] propagation = new double[outputAmount];
+    private final double[] propagation = new double[outputAmount];
 
 
     public Propagater(Individual individual, NetworkAdapter networkAdapter) {
         this.individual = individual;
-        this.genome = individual.getNetwork();
+        this.network = individual.getNetwork().getCompiledNetwork();
         this.networkAdapter = networkAdapter;
     }
 
     public void propagate() {
-        propagation = genome.propagate(networkAdapter.getPack());
+        network.propagate(networkAdapter.getPack(), propagation);
     }
 
     public double getCartAcc() {
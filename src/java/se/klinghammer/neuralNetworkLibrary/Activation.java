@@ -6,36 +6,109 @@ public enum Activation {
         public double activate(double input) {
             return input;
         }
+
+        @Override
+        public void activate(double[] buffer, int from, int to) {
+        }
     },
     Sigmoid {
         @Override
         public double activate(double input) {
             return 1.0 / (1.0 + Math.exp(-input));
         }
+
+        @Override
+        public void activate(double[] buffer, int from, int to) {
+            for (int i = from; i < to; i++) {
+                buffer[i] = 1.0 / (1.0 + Math.exp(-buffer[i]));
+            }
+        }
+
+        @Override
+        public double approximate(double input) {
+            return ActivationTables.sigmoid(input);
+        }
+
+        @Override
+        public void approximate(double[] buffer, int from, int to) {
+            for (int i = from; i < to; i++) {
+                buffer[i] = ActivationTables.sigmoid(buffer[i]);
+            }
+        }
     },
     Tanh {
         @Override
         public double activate(double input) {
             return Math.tanh(input);
         }
+
+        @Override
+        public void activate(double[] buffer, int from, int to) {
+            for (int i = from; i < to; i++) {
+                buffer[i] = Math.tanh(buffer[i]);
+            }
+        }
+
+        @Override
+        public double approximate(double input) {
+            return ActivationTables.tanh(input);
+        }
+
+        @Override
+        public void approximate(double[] buffer, int from, int to) {
+            for (int i = from; i < to; i++) {
+                buffer[i] = ActivationTables.tanh(buffer[i]);
+            }
+        }
     },
     ReLU {
         @Override
         public double activate(double input) {
             return Math.max(0, input);
         }
+
+        @Override
+        public void activate(double[] buffer, int from, int to) {
+            for (int i = from; i < to; i++) {
+                buffer[i] = Math.max(0, buffer[i]);
+            }
+        }
     },
     LeakyReLU {
         @Override
         public double activate(double input) {
             return input >= 0 ? input : 0.01 * input;
         }
+
+        @Override
+        public void activate(double[] buffer, int from, int to) {
+            for (int i = from; i < to; i++) {
+                buffer[i] = buffer[i] >= 0 ? buffer[i] : 0.01 * buffer[i];
+            }
+        }
     };
 
     public double activate(double input) {
         throw new UnsupportedOperationException("This activation function does not support single input activation");
     }
 
+    // Activates buffer[from], ..., buffer[to - 1] in place
+    public void activate(double[] buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            buffer[i] = activate(buffer[i]);
+        }
+    }
+
+    // Faster, table based version where one exists, see ActivationTables for the error bounds.
+    // Activations that are already cheap return the exact value.
+    public double approximate(double input) {
+        return activate(input);
+    }
+
+    public void approximate(double[] buffer, int from, int to) {
+        activate(buffer, from, to);
+    }
+
     public static Activation getFromString(String activation) {
         for (Activation act : Activation.values()) {
             if (act.name().equalsIgnoreCase(activation)) {
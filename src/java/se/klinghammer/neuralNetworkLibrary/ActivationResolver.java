@@ -0,0 +1,79 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.util.Objects;
+
+// Effective activation functions for the current config.
+// Resolved once whenever the config is (re)loaded so inference never reads the config or scans Activation.values().
+public final class ActivationResolver {
+    private static volatile ActivationResolver current = new ActivationResolver(null, Activation.Sigmoid, false);
+
+    // Null when hidden neurons use their own activation
+    private final Activation forcedHiddenActivation;
+    private final Activation outputActivation;
+    private final boolean approximate;
+
+    private ActivationResolver(Activation forcedHiddenActivation, Activation outputActivation, boolean approximate) {
+        this.forcedHiddenActivation = forcedHiddenActivation;
+        this.outputActivation = outputActivation;
+        this.approximate = approximate;
+    }
+
+    static void update(ConfigLoader config) {
+        String forcedHidden = config.getSring("forceHiddenActivationType");
+        String forcedOutput = config.getSring("forceOutputActivationType");
+
+        ActivationResolver resolver = new ActivationResolver(
+                forcedHidden == null || forcedHidden.isEmpty() ? null : Activation.getFromString(forcedHidden),
+                forcedOutput == null || forcedOutput.isEmpty() ? Activation.Sigmoid : Activation.getFromString(forcedOutput),
+                config.getBoolean("fastActivation"));
+
+        // Cached plans are keyed on the resolver, so reloading an unchanged config must keep the same instance
+        if (!resolver.equals(current)) {
+            current = resolver;
+        }
+    }
+
+    public static ActivationResolver get() {
+        return current;
+    }
+
+    public Activation resolveHidden(NeuronGene neuron) {
+        return resolveHidden(neuron.getActivation());
+    }
+
+    public Activation resolveHidden(Activation own) {
+        return forcedHiddenActivation == null ? own : forcedHiddenActivation;
+    }
+
+    public Activation getOutputActivation() {
+        return outputActivation;
+    }
+
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    public double activateHidden(NeuronGene neuron, double input) {
+        Activation activation = resolveHidden(neuron);
+        return approximate ? activation.approximate(input) : activation.activate(input);
+    }
+
+    public double activateOutput(double input) {
+        return approximate ? outputActivation.approximate(input) : outputActivation.activate(input);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ActivationResolver resolver = (ActivationResolver) o;
+        return forcedHiddenActivation == resolver.forcedHiddenActivation
+                && outputActivation == resolver.outputActivation
+                && approximate == resolver.approximate;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(forcedHiddenActivation, outputActivation, approximate);
+    }
+}
@@ -0,0 +1,60 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.util.function.DoubleUnaryOperator;
+
+// Lookup tables with linear interpolation used by Activation.approximate.
+// Maximum absolute error over all doubles: sigmoid 1.2e-5, tanh 2.4e-5.
+final class ActivationTables {
+    private static final double SIGMOID_RANGE = 16;
+    private static final double SIGMOID_STEPS_PER_UNIT = 32;
+    private static final double[] SIGMOID = createTable(SIGMOID_RANGE, SIGMOID_STEPS_PER_UNIT, x -> 1.0 / (1.0 + Math.exp(-x)));
+
+    private static final double TANH_RANGE = 8;
+    private static final double TANH_STEPS_PER_UNIT = 64;
+    private static final double[] TANH = createTable(TANH_RANGE, TANH_STEPS_PER_UNIT, Math::tanh);
+
+    private ActivationTables() {
+    }
+
+    static double sigmoid(double input) {
+        if (input <= -SIGMOID_RANGE) {
+            return 0;
+        }
+
+        if (input >= SIGMOID_RANGE) {
+            return 1;
+        }
+
+        return interpolate(SIGMOID, (input + SIGMOID_RANGE) * SIGMOID_STEPS_PER_UNIT);
+    }
+
+    static double tanh(double input) {
+        if (input <= -TANH_RANGE) {
+            return -1;
+        }
+
+        if (input >= TANH_RANGE) {
+            return 1;
+        }
+
+        return interpolate(TANH, (input + TANH_RANGE) * TANH_STEPS_PER_UNIT);
+    }
+
+    private static double interpolate(double[] table, double position) {
+        int index = (int) position;
+        double fraction = position - index;
+
+        return table[index] + (table[index + 1] - table[index]) * fraction;
+    }
+
+    private static double[] createTable(double range, double stepsPerUnit, DoubleUnaryOperator function) {
+        // One extra entry so interpolation at the upper edge stays inside the table
+        double[] table = new double[(int) (2 * range * stepsPerUnit) + 2];
+
+        for (int i = 0; i < table.length; i++) {
+            table[i] = function.applyAsDouble(i / stepsPerUnit - range);
+        }
+
+        return table;
+    }
+}
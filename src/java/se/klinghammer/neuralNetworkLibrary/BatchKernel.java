@@ -0,0 +1,29 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+// Inner loops of the batched inference path. The vectorized kernel is used when the
+// jdk.incubator.vector module has been added to the JVM (--add-modules jdk.incubator.vector),
+// otherwise the scalar kernel is used.
+interface BatchKernel {
+    BatchKernel instance = BatchKernel.select();
+
+    // values[target + k] += values[source + k] * weight for k in 0, ..., length - 1
+    void multiplyAdd(double[] values, int source, int target, int length, double weight);
+
+    void activate(Activation activation, double[] values, int from, int to, boolean approximate);
+
+    String getName();
+
+    private static BatchKernel select() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (BatchKernel) Class.forName("se.klinghammer.neuralNetworkLibrary.VectorBatchKernel")
+                        .getDeclaredConstructor()
+                        .newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return new ScalarBatchKernel();
+            }
+        }
+
+        return new ScalarBatchKernel();
+    }
+}
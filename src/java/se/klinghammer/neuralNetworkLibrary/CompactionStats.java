@@ -0,0 +1,40 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+// What GenomeCompactor removed from the genomes of one generation.
+// The bytes are an estimate of the memory the removed genes and their index entries took up, with compressed references
+public final class CompactionStats {
+    private int compactedGenomes;
+    private long removedLinks;
+    private long removedNeurons;
+    private long reclaimedBytes;
+
+    void add(int links, int neurons) {
+        compactedGenomes++;
+        removedLinks += links;
+        removedNeurons += neurons;
+        reclaimedBytes += links * GenomeCompactor.LINK_BYTES + neurons * GenomeCompactor.NEURON_BYTES;
+    }
+
+    // Genomes that had anything removed
+    public int getCompactedGenomes() {
+        return compactedGenomes;
+    }
+
+    public long getRemovedLinks() {
+        return removedLinks;
+    }
+
+    public long getRemovedNeurons() {
+        return removedNeurons;
+    }
+
+    public long getReclaimedBytes() {
+        return reclaimedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "compacted genomes " + compactedGenomes + ", removed links " + removedLinks
+                + ", removed neurons " + removedNeurons + ", reclaimed bytes " + reclaimedBytes;
+    }
+}
@@ -0,0 +1,121 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.util.Arrays;
+
+// What speciation needs to know about a genome, built once per generation: the neuron ids and the link keys in
+// ascending order, with the weights in the order of the keys. The delta between two signatures is a linear merge
+// instead of a lookup in the other genome for every gene.
+final class CompatibilitySignature {
+    // Matched links between checks whether the weight difference can still bring the delta below the threshold
+    private static final int BOUND_CHECK_INTERVAL = 8;
+
+    private final int[] neuronIds;
+    private final long[] linkKeys;
+    private final double[] weights;
+
+    CompatibilitySignature(Genome genome) {
+        neuronIds = new int[genome.getNeuronsSize()];
+
+        for (int position = 0; position < neuronIds.length; position++) {
+            neuronIds[position] = genome.getNeuron(position).getId();
+        }
+
+        Arrays.sort(neuronIds);
+
+        int linkCount = genome.getLinks().size();
+        linkKeys = new long[linkCount];
+        weights = new double[linkCount];
+
+        for (int position = 0; position < linkCount; position++) {
+            linkKeys[position] = genome.getLink(position).convertToLong();
+        }
+
+        Arrays.sort(linkKeys);
+
+        for (int i = 0; i < linkCount; i++) {
+            weights[i] = genome.findLink((int) (linkKeys[i] >> 32), (int) linkKeys[i]).getWeight();
+        }
+    }
+
+    // The delta Population uses for speciation, with this signature as the representative:
+    // (excessConstant * E + disjointConstant * D) / N + weightConstant * W, where E counts the representative's neurons
+    // above the highest id of the other genome, D the representative's other neurons the other genome does not have,
+    // N is the larger neuron count and W the average weight difference of the links both have.
+    // With non negative constants the merge stops as soon as the delta can not get below threshold any more,
+    // the result is then a lower bound of the delta that is at least threshold.
+    double delta(CompatibilitySignature other, double excessConstant, double disjointConstant, double weightConstant, double threshold) {
+        int n = Math.max(neuronIds.length, other.neuronIds.length);
+        int otherMaxId = Math.max(0, other.neuronIds[other.neuronIds.length - 1]);
+        int below = upperBound(neuronIds, otherMaxId);
+        int excess = neuronIds.length - below;
+
+        if (excessConstant < 0 || disjointConstant < 0 || weightConstant < 0) {
+            threshold = Double.POSITIVE_INFINITY;
+        }
+
+        int disjoint = 0;
+        int j = 0;
+
+        for (int i = 0; i < below; i++) {
+            while (j < other.neuronIds.length && other.neuronIds[j] < neuronIds[i]) {
+                j++;
+            }
+
+            if (j == other.neuronIds.length || other.neuronIds[j] != neuronIds[i]) {
+                disjoint++;
+            }
+        }
+
+        double structure = (excessConstant * excess + disjointConstant * disjoint) / n;
+
+        if (structure >= threshold) {
+            return structure;
+        }
+
+        double difference = 0;
+        int matched = 0;
+        int i = 0;
+        j = 0;
+
+        while (i < linkKeys.length && j < other.linkKeys.length) {
+            if (linkKeys[i] < other.linkKeys[j]) {
+                i++;
+            } else if (linkKeys[i] > other.linkKeys[j]) {
+                j++;
+            } else {
+                difference += Math.abs(weights[i++] - other.weights[j++]);
+                matched++;
+
+                // The average can at best drop to difference / (matched + every link that could still match)
+                if (matched % BOUND_CHECK_INTERVAL == 0) {
+                    int possible = matched + Math.min(linkKeys.length - i, other.linkKeys.length - j);
+                    double bound = structure + weightConstant * (difference / possible);
+
+                    if (bound >= threshold) {
+                        return bound;
+                    }
+                }
+            }
+        }
+
+        return structure + weightConstant * (matched == 0 ? 0 : difference / matched);
+    }
+
+    // Index of the first id above id
+    private static int upperBound(int[] ids, int id) {
+        int low = 0;
+        int high = ids.length;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (ids[middle] <= id) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+}
@@ -0,0 +1,271 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Immutable, array based snapshot of a genome used for inference.
+// Neurons are renumbered densely: inputs first, then hidden neurons in topological order, then outputs.
+// Links are grouped by source neuron so a single forward pass over the arrays evaluates the network.
+public final class CompiledNetwork implements NetworkEvaluator {
+    private static final ThreadLocal<double[]> valueBuffer = ThreadLocal.withInitial(() -> new double[0]);
+
+    private final int amountOfInputs;
+    private final int amountOfOutputs;
+    private final int neuronCount;
+    private final int outputStart;
+
+    private final double[] bias;
+    private final Activation[] activation;
+    private final Activation outputActivation;
+    private final boolean approximateActivations;
+
+    // Links of source slot s are linkStart[s], ..., linkStart[s + 1] - 1
+    private final int[] linkStart;
+    private final int[] linkSource;
+    private final int[] linkTarget;
+    private final double[] linkWeight;
+
+    public CompiledNetwork(Genome genome) {
+        amountOfInputs = genome.getAmountOfInputs();
+        amountOfOutputs = genome.getAmountOfOutputs();
+
+        List<NeuronGene> hidden = genome.getHiddenNeuronsInTopologicalOrder();
+
+        neuronCount = amountOfInputs + hidden.size() + amountOfOutputs;
+        outputStart = amountOfInputs + hidden.size();
+
+        IntIntHashMap idToSlot = new IntIntHashMap(-1, neuronCount);
+        bias = new double[neuronCount];
+        activation = new Activation[neuronCount];
+
+        for (int i = 0; i < amountOfInputs; i++) {
+            idToSlot.put(i, i);
+            activation[i] = Activation.None;
+        }
+
+        ActivationResolver resolver = ActivationResolver.get();
+
+        for (int i = 0; i < hidden.size(); i++) {
+            NeuronGene neuron = hidden.get(i);
+            int slot = amountOfInputs + i;
+
+            idToSlot.put(neuron.getId(), slot);
+            bias[slot] = neuron.getBias();
+            activation[slot] = resolver.resolveHidden(neuron);
+        }
+
+        for (int i = 0; i < amountOfOutputs; i++) {
+            int slot = outputStart + i;
+
+            idToSlot.put(amountOfInputs + i, slot);
+            bias[slot] = genome.getNeuronFromId(amountOfInputs + i).getBias();
+            activation[slot] = Activation.None;
+        }
+
+        outputActivation = resolver.getOutputActivation();
+        approximateActivations = resolver.isApproximate();
+
+        // Counting sort of the enabled links on source slot
+        linkStart = new int[neuronCount + 1];
+        int linkCount = 0;
+
+        for (LinkGene link : genome.getLinks()) {
+            if (link.isEnabled()) {
+                linkStart[idToSlot.get(link.getInputId()) + 1]++;
+                linkCount++;
+            }
+        }
+
+        for (int i = 0; i < neuronCount; i++) {
+            linkStart[i + 1] += linkStart[i];
+        }
+
+        linkSource = new int[linkCount];
+        linkTarget = new int[linkCount];
+        linkWeight = new double[linkCount];
+        int[] next = new int[neuronCount];
+        System.arraycopy(linkStart, 0, next, 0, neuronCount);
+
+        for (LinkGene link : genome.getLinks()) {
+            if (!link.isEnabled()) {
+                continue;
+            }
+
+            int source = idToSlot.get(link.getInputId());
+            int index = next[source]++;
+
+            linkSource[index] = source;
+            linkTarget[index] = idToSlot.get(link.getOutputId());
+            linkWeight[index] = link.getWeight();
+        }
+    }
+
+    public double[] propagate(double[] inputs) {
+        double[] outputs = new double[amountOfOutputs];
+        propagate(inputs, outputs);
+        return outputs;
+    }
+
+    // Uses a buffer confined to the calling thread, so no allocation happens after the first call
+    @Override
+    public void propagate(double[] inputs, double[] outputs) {
+        double[] values = valueBuffer.get();
+
+        if (values.length < neuronCount) {
+            values = new double[neuronCount];
+            valueBuffer.set(values);
+        }
+
+        propagate(inputs, outputs, values);
+    }
+
+    public void propagate(double[] inputs, double[] outputs, double[] values) {
+        System.arraycopy(inputs, 0, values, 0, amountOfInputs);
+        System.arraycopy(bias, amountOfInputs, values, amountOfInputs, neuronCount - amountOfInputs);
+
+        for (int source = 0; source < outputStart; source++) {
+            double value = values[source];
+
+            if (source >= amountOfInputs) {
+                value = approximateActivations ? activation[source].approximate(value) : activation[source].activate(value);
+            }
+
+            for (int i = linkStart[source]; i < linkStart[source + 1]; i++) {
+                values[linkTarget[i]] += value * linkWeight[i];
+            }
+        }
+
+        for (int i = 0; i < amountOfOutputs; i++) {
+            double value = values[outputStart + i];
+            outputs[i] = approximateActivations ? outputActivation.approximate(value) : outputActivation.activate(value);
+        }
+    }
+
+    public double[][] propagateBatch(double[][] inputs) {
+        int samples = inputs.length;
+        double[] inputBlock = new double[samples * amountOfInputs];
+        double[] outputBlock = new double[samples * amountOfOutputs];
+
+        for (int k = 0; k < samples; k++) {
+            System.arraycopy(inputs[k], 0, inputBlock, k * amountOfInputs, amountOfInputs);
+        }
+
+        propagateBatch(inputBlock, samples, outputBlock);
+
+        double[][] outputs = new double[samples][amountOfOutputs];
+
+        for (int k = 0; k < samples; k++) {
+            System.arraycopy(outputBlock, k * amountOfOutputs, outputs[k], 0, amountOfOutputs);
+        }
+
+        return outputs;
+    }
+
+    // Row major blocks: inputs[sample * amountOfInputs + i] and outputs[sample * amountOfOutputs + i]
+    public void propagateBatch(double[] inputs, int samples, double[] outputs) {
+        int size = neuronCount * samples;
+        double[] values = valueBuffer.get();
+
+        if (values.length < size) {
+            values = new double[size];
+            valueBuffer.set(values);
+        }
+
+        propagateBatch(inputs, samples, outputs, values);
+    }
+
+    // The topology is walked once, every link updates all samples in a contiguous inner loop.
+    // Values are stored neuron major: values[slot * samples + sample]
+    public void propagateBatch(double[] inputs, int samples, double[] outputs, double[] values) {
+        BatchKernel kernel = BatchKernel.instance;
+
+        for (int i = 0; i < amountOfInputs; i++) {
+            int offset = i * samples;
+
+            for (int k = 0; k < samples; k++) {
+                values[offset + k] = inputs[k * amountOfInputs + i];
+            }
+        }
+
+        for (int slot = amountOfInputs; slot < neuronCount; slot++) {
+            int offset = slot * samples;
+            Arrays.fill(values, offset, offset + samples, bias[slot]);
+        }
+
+        for (int source = 0; source < outputStart; source++) {
+            int sourceOffset = source * samples;
+
+            if (source >= amountOfInputs) {
+                kernel.activate(activation[source], values, sourceOffset, sourceOffset + samples, approximateActivations);
+            }
+
+            for (int i = linkStart[source]; i < linkStart[source + 1]; i++) {
+                kernel.multiplyAdd(values, sourceOffset, linkTarget[i] * samples, samples, linkWeight[i]);
+            }
+        }
+
+        for (int i = 0; i < amountOfOutputs; i++) {
+            int offset = (outputStart + i) * samples;
+            kernel.activate(outputActivation, values, offset, offset + samples, approximateActivations);
+
+            for (int k = 0; k < samples; k++) {
+                outputs[k * amountOfOutputs + i] = values[offset + k];
+            }
+        }
+    }
+
+    @Override
+    public int getAmountOfInputs() {
+        return amountOfInputs;
+    }
+
+    @Override
+    public int getAmountOfOutputs() {
+        return amountOfOutputs;
+    }
+
+    public int getNeuronCount() {
+        return neuronCount;
+    }
+
+    public int getLinkCount() {
+        return linkWeight.length;
+    }
+
+    int getOutputStart() {
+        return outputStart;
+    }
+
+    double getBias(int slot) {
+        return bias[slot];
+    }
+
+    Activation getActivation(int slot) {
+        return activation[slot];
+    }
+
+    Activation getOutputActivation() {
+        return outputActivation;
+    }
+
+    boolean isApproximatingActivations() {
+        return approximateActivations;
+    }
+
+    int getLinkStart(int slot) {
+        return linkStart[slot];
+    }
+
+    int getLinkTarget(int link) {
+        return linkTarget[link];
+    }
+
+    double getLinkWeight(int link) {
+        return linkWeight[link];
+    }
+
+    // Name of the kernel used by propagateBatch, "scalar" unless the vector API is available
+    public static String getBatchKernelName() {
+        return BatchKernel.instance.getName();
+    }
+}
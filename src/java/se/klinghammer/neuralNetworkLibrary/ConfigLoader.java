@@ -2,10 +2,15 @@ package se.klinghammer.neuralNetworkLibrary;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Properties;
 
 public class ConfigLoader {
     private Properties properties = new Properties();
+    // Values parsed once on load, Population reads the config for every individual and crossover for every gene.
+    // Never written afterwards, so the loader can be read from several threads
+    private final HashMap<String, Integer> ints = new HashMap<>();
+    private final HashMap<String, Double> doubles = new HashMap<>();
 
     public ConfigLoader(String configFilePath) {
         try (FileInputStream input = new FileInputStream(configFilePath)) {
@@ -13,9 +18,29 @@ public class ConfigLoader {
         } catch (IOException e) {
             e.printStackTrace();
         }
+
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key);
+
+            try {
+                ints.put(key, Integer.parseInt(value));
+            } catch (NumberFormatException ignored) {
+            }
+
+            try {
+                doubles.put(key, Double.parseDouble(value));
+            } catch (NumberFormatException ignored) {
+            }
+        }
     }
 
     public int getInt(String key) {
+        Integer cached = ints.get(key);
+
+        if (cached != null) {
+            return cached;
+        }
+
         try {
             return Integer.parseInt(properties.getProperty(key));
         } catch (NumberFormatException e) {
@@ -25,6 +50,12 @@ public class ConfigLoader {
     }
 
     public double getDouble(String key) {
+        Double cached = doubles.get(key);
+
+        if (cached != null) {
+            return cached;
+        }
+
         try {
             return Double.parseDouble(properties.getProperty(key));
         } catch (NumberFormatException e) {
@@ -33,6 +64,10 @@ public class ConfigLoader {
         }
     }
 
+    public boolean getBoolean(String key) {
+        return Boolean.parseBoolean(properties.getProperty(key));
+    }
+
     public String getSring(String key) {
         try {
             return properties.getProperty(key);
@@ -0,0 +1,99 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+// CompiledNetwork with float weights, biases and neuron values, halving the memory traffic of inference.
+// Activations are evaluated in double precision and rounded back to float.
+public final class Float32Network implements NetworkEvaluator {
+    private static final ThreadLocal<float[]> valueBuffer = ThreadLocal.withInitial(() -> new float[0]);
+
+    private final int amountOfInputs;
+    private final int amountOfOutputs;
+    private final int neuronCount;
+    private final int outputStart;
+
+    private final float[] bias;
+    private final Activation[] activation;
+    private final Activation outputActivation;
+    private final boolean approximateActivations;
+
+    private final int[] linkStart;
+    private final int[] linkTarget;
+    private final float[] linkWeight;
+
+    public Float32Network(CompiledNetwork network) {
+        amountOfInputs = network.getAmountOfInputs();
+        amountOfOutputs = network.getAmountOfOutputs();
+        neuronCount = network.getNeuronCount();
+        outputStart = network.getOutputStart();
+        outputActivation = network.getOutputActivation();
+        approximateActivations = network.isApproximatingActivations();
+
+        bias = new float[neuronCount];
+        activation = new Activation[neuronCount];
+        linkStart = new int[neuronCount + 1];
+        linkTarget = new int[network.getLinkCount()];
+        linkWeight = new float[network.getLinkCount()];
+
+        for (int slot = 0; slot < neuronCount; slot++) {
+            bias[slot] = (float) network.getBias(slot);
+            activation[slot] = network.getActivation(slot);
+            linkStart[slot + 1] = network.getLinkStart(slot + 1);
+        }
+
+        for (int i = 0; i < linkWeight.length; i++) {
+            linkTarget[i] = network.getLinkTarget(i);
+            linkWeight[i] = (float) network.getLinkWeight(i);
+        }
+    }
+
+    public Float32Network(Genome genome) {
+        this(genome.compile());
+    }
+
+    @Override
+    public void propagate(double[] inputs, double[] outputs) {
+        float[] values = valueBuffer.get();
+
+        if (values.length < neuronCount) {
+            values = new float[neuronCount];
+            valueBuffer.set(values);
+        }
+
+        for (int i = 0; i < amountOfInputs; i++) {
+            values[i] = (float) inputs[i];
+        }
+
+        System.arraycopy(bias, amountOfInputs, values, amountOfInputs, neuronCount - amountOfInputs);
+
+        for (int source = 0; source < outputStart; source++) {
+            float value = values[source];
+
+            if (source >= amountOfInputs) {
+                value = (float) (approximateActivations ? activation[source].approximate(value) : activation[source].activate(value));
+            }
+
+            for (int i = linkStart[source]; i < linkStart[source + 1]; i++) {
+                values[linkTarget[i]] += value * linkWeight[i];
+            }
+        }
+
+        for (int i = 0; i < amountOfOutputs; i++) {
+            float value = values[outputStart + i];
+            outputs[i] = approximateActivations ? outputActivation.approximate(value) : outputActivation.activate(value);
+        }
+    }
+
+    @Override
+    public int getAmountOfInputs() {
+        return amountOfInputs;
+    }
+
+    @Override
+    public int getAmountOfOutputs() {
+        return amountOfOutputs;
+    }
+
+    // Bytes used by the weights, biases and link targets
+    public long getParameterBytes() {
+        return 4L * (bias.length + linkWeight.length + linkTarget.length + linkStart.length);
+    }
+}
@@ -0,0 +1,140 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.util.Arrays;
+
+// Recycles the genes and gene list segments of a finished generation into the genes of the next one.
+// Enabled with genePooling in the config. Only genes and segments that a genome exclusively owns are recycled,
+// anything shared with a copy stays untouched, but a released genome is emptied and must not be used again.
+// Every thread has its own pool, so no synchronization is needed.
+final class GenePool {
+    private static final ThreadLocal<GenePool> current = ThreadLocal.withInitial(GenePool::new);
+    private static volatile boolean enabled;
+
+    private LinkGene[] links = new LinkGene[64];
+    private int linkCount;
+    private NeuronGene[] neurons = new NeuronGene[64];
+    private int neuronCount;
+    private Object[][] segments = new Object[16][];
+    private int segmentCount;
+
+    private long reused;
+    private long released;
+
+    private GenePool() {
+    }
+
+    static void update(ConfigLoader config) {
+        enabled = config.getBoolean("genePooling");
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static GenePool get() {
+        return current.get();
+    }
+
+    static LinkGene newLink(int inputId, int outputId, double weight, boolean enabled) {
+        if (GenePool.enabled) {
+            GenePool pool = current.get();
+
+            if (pool.linkCount > 0) {
+                LinkGene link = pool.links[--pool.linkCount];
+                pool.links[pool.linkCount] = null;
+                pool.reused++;
+                link.reset(inputId, outputId, weight, enabled);
+
+                return link;
+            }
+        }
+
+        return new LinkGene(inputId, outputId, weight, enabled);
+    }
+
+    static NeuronGene newNeuron(int id, double bias, Activation activation) {
+        if (enabled) {
+            GenePool pool = current.get();
+
+            if (pool.neuronCount > 0) {
+                NeuronGene neuron = pool.neurons[--pool.neuronCount];
+                pool.neurons[pool.neuronCount] = null;
+                pool.reused++;
+                neuron.reset(id, bias, activation);
+
+                return neuron;
+            }
+        }
+
+        return new NeuronGene(id, bias, activation);
+    }
+
+    // Same as new NeuronGene(id)
+    static NeuronGene newNeuron(int id) {
+        NeuronGene neuron = newNeuron(id, 0, Activation.None);
+        neuron.initializeBias();
+
+        return neuron;
+    }
+
+    // Empty segment for a SegmentedList of the given segment size
+    static Object[] newSegment(int size) {
+        if (enabled) {
+            GenePool pool = current.get();
+
+            if (pool.segmentCount > 0 && pool.segments[pool.segmentCount - 1].length == size) {
+                Object[] segment = pool.segments[--pool.segmentCount];
+                pool.segments[pool.segmentCount] = null;
+                pool.reused++;
+
+                return segment;
+            }
+        }
+
+        return new Object[size];
+    }
+
+    // Takes back everything the genome exclusively owns, the genome is left empty
+    void release(Genome genome) {
+        genome.releaseTo(this);
+    }
+
+    void add(LinkGene link) {
+        if (linkCount == links.length) {
+            links = Arrays.copyOf(links, linkCount * 2);
+        }
+
+        links[linkCount++] = link;
+        released++;
+    }
+
+    void add(NeuronGene neuron) {
+        if (neuronCount == neurons.length) {
+            neurons = Arrays.copyOf(neurons, neuronCount * 2);
+        }
+
+        neurons[neuronCount++] = neuron;
+        released++;
+    }
+
+    void add(Object[] segment) {
+        Arrays.fill(segment, null);
+
+        if (segmentCount == segments.length) {
+            segments = Arrays.copyOf(segments, segmentCount * 2);
+        }
+
+        segments[segmentCount++] = segment;
+        released++;
+    }
+
+    // Genes and segments handed out again, and taken back, by the pool of the calling thread.
+    // ReproductionPool sums them over its threads
+    static long getReusedCount() {
+        return current.get().reused;
+    }
+
+    static long getReleasedCount() {
+        return current.get().released;
+    }
+}
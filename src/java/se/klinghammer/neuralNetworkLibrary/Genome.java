@@ -3,248 +3,760 @@ package se.klinghammer.neuralNetworkLibrary;
 import java.io.Serializable;
 import java.util.*;
 
-public class Genome implements Serializable {
+public class Genome implements Serializable, NetworkEvaluator {
     // Must have
     private final int amountOfInputs;
     private final int amountOfOutputs;
-    private final List<NeuronGene> neurons = new ArrayList<>();
-    private final List<LinkGene> links = new ArrayList<>();
-    // Performance
-    private final HashMap<Integer, NeuronGene> idToNeuron = new HashMap<>();
-    private final HashMap<Integer, List<Integer>> adjacencyList = new HashMap<>();
+    // Shared with copies of the genome, see copy(). Only replaced by retain
+    private SegmentedList<NeuronGene> neurons;
+    private SegmentedList<LinkGene> links;
+    // Performance, built from the genes again after deserialization. Neurons are indexed by their position in the neuron list.
+    // The indexes are shared with copies as well and duplicated before the first structural change
+    private transient IntIntHashMap idToIndex;
+    // successors[i][0, ..., outDegree[i] - 1] are the neurons neuron i has links to, disabled links included,
+    // predecessors[i][0, ..., inDegree[i] - 1] the neurons with links to neuron i
+    private transient int[][] successors;
+    private transient int[][] predecessors;
+    private transient int[] inDegree;
+    private transient int[] outDegree;
+    // Topological order over all links, maintained as links are added (Pearce-Kelly).
+    // order[i] is the position of neuron i and neuronAt[position] the neuron at that position
+    private transient int[] order;
+    private transient int[] neuronAt;
+    // Position in the link list by LinkGene.convertToLong(inputId, outputId)
+    private transient LongIntHashMap linkIndex;
+    private transient boolean indexesShared;
+    // Positions of the enabled links, updated by the links themselves when they are enabled or disabled.
+    // Shared with copies like the other indexes, but duplicated on its own since it also changes without structural changes
+    private transient IndexedIntSet enabledLinks;
+    private transient boolean enabledLinksShared;
+    // Versions used to invalidate cached plans. The version is incremented by every change, including weights,
+    // biases, activations and enabled flags changed through the genes, the structure version only by added neurons and links.
+    private transient long version;
+    private transient long structureVersion;
+    // Genes only report changes to the genome they are attached to, genomes created by deserialization attach lazily.
+    // Genes can only be changed in place while their owner is the current owner of the genome
+    private transient Owner owner;
+    private transient boolean genesAttached;
+    private transient CompiledNetwork compiledNetwork;
+    private transient long compiledVersion;
+    private transient ActivationResolver compiledResolver;
+    private transient SubgraphPlan[] outputPlans;
 
     public Genome(int amountOfInputs, int amountOfOutputs) {
+        this(amountOfInputs, amountOfOutputs, true);
+    }
+
+    // Without createNeurons the caller adds the input and output neurons itself, in id order, before any hidden neuron
+    Genome(int amountOfInputs, int amountOfOutputs, boolean createNeurons) {
         if (amountOfInputs <= 0 || amountOfOutputs <= 0) {
             throw new IllegalArgumentException("There has to be at least one input- and one output neuron");
         }
 
         this.amountOfInputs = amountOfInputs;
         this.amountOfOutputs = amountOfOutputs;
+        this.neurons = new SegmentedList<>();
+        this.links = new SegmentedList<>();
 
         // Input: 0, ..., amountOfInputs - 1
         // Output: amountOfInputs, ..., amountOfInputs + amountOfOutputs - 1
-        for (int i = 0; i < amountOfInputs + amountOfOutputs; i++) {
-            addNeuron(new NeuronGene(i));
+        if (createNeurons) {
+            for (int i = 0; i < amountOfInputs + amountOfOutputs; i++) {
+                addNeuron(GenePool.newNeuron(i));
+            }
         }
     }
 
     public double[] propagate(double[] inputs) {
-        HashMap<Integer, Double> currentValue = new HashMap<>(neurons.size());
-        BitSet activatedNeurons = new BitSet(neurons.size());
+        return getCompiledNetwork().propagate(inputs);
+    }
 
-        for (NeuronGene neuron : neurons) {
-            currentValue.put(neuron.getId(), neuron.getBias());
+    @Override
+    public void propagate(double[] inputs, double[] outputs) {
+        getCompiledNetwork().propagate(inputs, outputs);
+    }
+
+    public CompiledNetwork compile() {
+        return new CompiledNetwork(this);
+    }
+
+    // Compiled plan of the current version, only rebuilt after the genome or the activation config changed
+    public CompiledNetwork getCompiledNetwork() {
+        attachGenes();
+        CompiledNetwork network = compiledNetwork;
+        ActivationResolver resolver = ActivationResolver.get();
+
+        if (network == null || compiledVersion != version || compiledResolver != resolver) {
+            network = compile();
+            compiledNetwork = network;
+            compiledVersion = version;
+            compiledResolver = resolver;
         }
 
-        for (int i = 0; i < amountOfInputs; i++) {
-            currentValue.put(i, inputs[i]);
-            activatedNeurons.set(i);
+        return network;
+    }
+
+    // Evaluates many input vectors with a single walk over the topology
+    public double[][] propagateBatch(double[][] inputs) {
+        return getCompiledNetwork().propagateBatch(inputs);
+    }
+
+    // Evaluates only the part of the network the output depends on, the plan is cached until the structure changes
+    public double specialPropagate(double[] inputs, int outputIndex) {
+        if (outputPlans == null) {
+            outputPlans = new SubgraphPlan[amountOfOutputs];
+        }
+
+        SubgraphPlan plan = outputPlans[outputIndex];
+
+        if (plan == null) {
+            plan = new SubgraphPlan(this, new int[]{outputIndex});
+            outputPlans[outputIndex] = plan;
+        }
+
+        return plan.propagate(inputs);
+    }
+
+    // Plan for evaluating several outputs at once while skipping neurons none of them depend on
+    public SubgraphPlan createSubgraphPlan(int... outputIndices) {
+        return new SubgraphPlan(this, outputIndices);
+    }
+
+    public long getVersion() {
+        attachGenes();
+        return version;
+    }
+
+    long getStructureVersion() {
+        return structureVersion;
+    }
+
+    private Owner owner() {
+        if (owner == null) {
+            owner = new Owner(this);
+        }
+
+        return owner;
+    }
+
+    private void attachGenes() {
+        if (genesAttached) {
+            return;
+        }
+
+        for (NeuronGene neuron : neurons) {
+            neuron.setOwner(owner());
         }
 
         for (LinkGene link : links) {
-            if (!link.isEnabled()) {
-                continue;
+            link.setOwner(owner());
+        }
+
+        genesAttached = true;
+    }
+
+    // Copy on write: the copy shares the genes, the gene lists and the indexes with this genome.
+    // Afterwards neither genome changes a shared gene in place, editLink and editNeuron copy it first,
+    // and the first structural change duplicates the indexes. The compiled plan is shared as well.
+    public Genome copy() {
+        return new Genome(this);
+    }
+
+    private Genome(Genome original) {
+        original.attachGenes();
+
+        amountOfInputs = original.amountOfInputs;
+        amountOfOutputs = original.amountOfOutputs;
+        neurons = original.neurons.share();
+        links = original.links.share();
+
+        // The genes keep their old owner, which is retired so it does not keep the original reachable
+        if (original.owner != null) {
+            original.owner.genome = null;
+        }
+
+        original.owner = new Owner(original);
+        genesAttached = true;
+
+        if (original.idToIndex != null) {
+            idToIndex = original.idToIndex;
+            successors = original.successors;
+            predecessors = original.predecessors;
+            inDegree = original.inDegree;
+            outDegree = original.outDegree;
+            order = original.order;
+            neuronAt = original.neuronAt;
+            linkIndex = original.linkIndex;
+            enabledLinks = original.enabledLinks;
+            indexesShared = true;
+            original.indexesShared = true;
+            enabledLinksShared = true;
+            original.enabledLinksShared = true;
+        }
+
+        version = original.version;
+        structureVersion = original.structureVersion;
+
+        if (original.compiledNetwork != null && original.compiledVersion == original.version) {
+            compiledNetwork = original.compiledNetwork;
+            compiledVersion = version;
+            compiledResolver = original.compiledResolver;
+        }
+    }
+
+    // The link of this genome with the same input and output that can be changed in place.
+    // A link that is shared with a copy of the genome is replaced by a copy of its own first.
+    public LinkGene editLink(LinkGene link) {
+        ensureIndexes();
+        int position = linkIndex.get(link.convertToLong());
+
+        if (position < 0) {
+            throw new IllegalArgumentException("There is no link from " + link.getInputId() + " to " + link.getOutputId());
+        }
+
+        attachGenes();
+        LinkGene current = links.get(position);
+
+        if (current.isOwnedBy(owner())) {
+            return current;
+        }
+
+        LinkGene copy = GenePool.newLink(current.getInputId(), current.getOutputId(), current.getWeight(), current.isEnabled());
+        copy.setDisabledSince(current.getDisabledSince());
+        copy.setOwner(owner());
+        links.set(position, copy);
+
+        return copy;
+    }
+
+    // The neuron of this genome with the same id that can be changed in place, see editLink
+    public NeuronGene editNeuron(NeuronGene neuron) {
+        ensureIndexes();
+        int position = indexOf(neuron.getId());
+
+        attachGenes();
+        NeuronGene current = neurons.get(position);
+
+        if (current.isOwnedBy(owner())) {
+            return current;
+        }
+
+        NeuronGene copy = GenePool.newNeuron(current.getId(), current.getBias(), current.getActivation());
+        copy.setOwner(owner());
+        neurons.set(position, copy);
+
+        return copy;
+    }
+
+    int getNeuronPosition(int id) {
+        ensureIndexes();
+        return indexOf(id);
+    }
+
+    // Genes this genome exclusively owns go to the pool, after that the genome is empty
+    void releaseTo(GenePool pool) {
+        if (genesAttached && owner != null) {
+            for (NeuronGene neuron : neurons) {
+                if (neuron.isOwnedBy(owner)) {
+                    pool.add(neuron);
+                }
             }
 
-            int inputId = link.getInputId();
-            int outputId = link.getOutputId();
-
-            // Apply activation function
-            if (!activatedNeurons.get(inputId)) {
-                if (Population.getConfig().getSring("forceHiddenActivationType").isEmpty()) {
-                    activatedNeurons.set(inputId);
-                    NeuronGene inputNeuron = idToNeuron.get(inputId);
-                    currentValue.put(inputId, inputNeuron.activate(currentValue.get(inputId)));
-                } else {
-                    currentValue.put(inputId, Activation.getFromString(Population.getConfig().getSring("forceHiddenActivationType")).activate(currentValue.get(inputId)));
+            for (LinkGene link : links) {
+                if (link.isOwnedBy(owner)) {
+                    pool.add(link);
                 }
+            }
+        }
 
+        neurons.releaseTo(pool);
+        links.releaseTo(pool);
 
-            }
+        idToIndex = null;
+        enabledLinks = null;
+        compiledNetwork = null;
+        outputPlans = null;
+        structureVersion++;
+        version++;
+    }
 
-            // Calculate input
-            double propagatedValue = currentValue.get(outputId) + currentValue.get(inputId) * link.getWeight();
-            currentValue.put(outputId, propagatedValue);
+    // Keeps the neurons and links whose positions are marked, in their current order, see GenomeCompactor.
+    // Kept genes are not copied, the ones shared with copies of the genome stay shared. Only the gene lists
+    // and the indexes of this genome are rebuilt. With gene pooling, dropped genes this genome owns go to the pool
+    void retain(boolean[] keepNeuron, boolean[] keepLink) {
+        attachGenes();
+        SegmentedList<NeuronGene> keptNeurons = new SegmentedList<>();
+        SegmentedList<LinkGene> keptLinks = new SegmentedList<>();
+        GenePool pool = GenePool.isEnabled() ? GenePool.get() : null;
+
+        for (int position = 0; position < neurons.size(); position++) {
+            NeuronGene neuron = neurons.get(position);
+
+            if (keepNeuron[position]) {
+                keptNeurons.add(neuron);
+            } else if (pool != null && neuron.isOwnedBy(owner())) {
+                pool.add(neuron);
+            }
         }
 
-        // Limit outputs between 0 and 1
-        double[] outputs = new double[amountOfOutputs];
+        for (int position = 0; position < links.size(); position++) {
+            LinkGene link = links.get(position);
 
-        for (int i = 0; i < amountOfOutputs; i++) {
-            if (Population.getConfig().getSring("forceOutputActivationType").isEmpty()) {
-                outputs[i] = se.klinghammer.neuralNetworkLibrary.Activation.Sigmoid.activate(currentValue.get(amountOfInputs + i));
-            } else {
-                outputs[i] = Activation.getFromString(Population.getConfig().getSring("forceOutputActivationType")).activate(currentValue.get(amountOfInputs + i));
+            if (keepLink[position]) {
+                keptLinks.add(link);
+            } else if (pool != null && link.isOwnedBy(owner())) {
+                pool.add(link);
             }
         }
 
-        return outputs;
+        if (pool != null) {
+            neurons.releaseTo(pool);
+            links.releaseTo(pool);
+        }
+
+        neurons = keptNeurons;
+        links = keptLinks;
+
+        // Rebuilt lazily, the previous indexes may still be shared with copies
+        idToIndex = null;
+        enabledLinks = null;
+        indexesShared = false;
+        enabledLinksShared = false;
+        compiledNetwork = null;
+        outputPlans = null;
+        structureVersion++;
+        version++;
     }
 
-    public double specialPropagate(double[] inputs, int outputIndex) {
-        Set<Integer> involvedIds = new HashSet<>();
-        List<LinkGene> linksToProcess = new ArrayList<>();
-        involvedIds.add(amountOfInputs + outputIndex);
+    // Builds everything reading the genome builds lazily, after that several threads can read it at once,
+    // for example to cross it over or to copy genes from it, as long as none of them changes it
+    void prepareForConcurrentReads() {
+        attachGenes();
+        ensureIndexes();
+    }
+
+    // Gives the neurons with an id in newIds the id it maps to, and changes the links to and from them to match.
+    // The renumbered neurons and their links must not be shared with a copy of the genome. Returns whether any id changed
+    boolean renumber(IntIntHashMap newIds) {
+        boolean changed = false;
 
-        for (int i = links.size() - 1; i >= 0; i--) {
-            LinkGene link = links.get(i);
+        for (int position = amountOfInputs + amountOfOutputs; position < neurons.size(); position++) {
+            NeuronGene neuron = neurons.get(position);
+            int id = newIds.get(neuron.getId());
 
-            if (link.isEnabled() && involvedIds.contains(link.getOutputId())) {
-                involvedIds.add(link.getInputId());
-                linksToProcess.add(link);
+            if (id != InnovationRegistry.MISSING) {
+                neuron.setId(id);
+                changed = true;
             }
         }
 
-        HashMap<Integer, Double> neuronValues = new HashMap<>(involvedIds.size());
-        BitSet activatedNeurons = new BitSet(involvedIds.size());
-
-        for (int id : involvedIds) {
-            neuronValues.put(id, idToNeuron.get(id).getBias());
+        if (!changed) {
+            return false;
         }
 
-        for (int i = 0; i < amountOfInputs; i++) {
-            neuronValues.put(i, inputs[i]);
-            activatedNeurons.set(i);
+        for (LinkGene link : links) {
+            int inputId = newIds.get(link.getInputId());
+            int outputId = newIds.get(link.getOutputId());
+
+            if (inputId != InnovationRegistry.MISSING || outputId != InnovationRegistry.MISSING) {
+                link.setIds(inputId == InnovationRegistry.MISSING ? link.getInputId() : inputId,
+                        outputId == InnovationRegistry.MISSING ? link.getOutputId() : outputId);
+            }
         }
 
-        for (int i = linksToProcess.size() - 1; i >= 0; i--) {
-            LinkGene link = linksToProcess.get(i);
-            int inputId = link.getInputId();
-            int outputId = link.getOutputId();
+        // Positions did not change, only the maps from ids to positions are rebuilt
+        if (idToIndex != null) {
+            ensureIndexesWritable();
+            idToIndex = new IntIntHashMap(-1, neurons.size());
+            linkIndex = new LongIntHashMap(-1, links.size());
 
-            // Apply activation function
-            if (!activatedNeurons.get(inputId)) {
-                activatedNeurons.set(inputId);
-                NeuronGene inputNeuron = idToNeuron.get(inputId);
-                neuronValues.put(inputId, inputNeuron.activate(neuronValues.get(inputId)));
+            for (int position = 0; position < neurons.size(); position++) {
+                idToIndex.put(neurons.get(position).getId(), position);
             }
 
-            // Calculate input
-            double propagatedValue = neuronValues.get(outputId) + neuronValues.get(inputId) * link.getWeight();
-            neuronValues.put(outputId, propagatedValue);
+            for (int position = 0; position < links.size(); position++) {
+                linkIndex.putIfAbsent(links.get(position).convertToLong(), position);
+            }
         }
 
-        /*double value = se.klinghammer.neuralNetworkLibrary.Activation.Sigmoid.activate(neuronValues.get(amountOfInputs + outputIndex));
-        double[] outputs = propagate(inputs);
-        if (value != outputs[outputIndex]) {
-            System.out.println("Något är lurt");
-        }*/
+        compiledNetwork = null;
+        outputPlans = null;
+        structureVersion++;
+        version++;
 
-        return Activation.Sigmoid.activate(neuronValues.get(amountOfInputs + outputIndex));
+        return true;
     }
 
+    NeuronGene getNeuron(int position) {
+        return neurons.get(position);
+    }
+
+    LinkGene getLink(int position) {
+        return links.get(position);
+    }
+
+    // A link from an earlier to a later neuron in the topological order can never close a cycle,
+    // otherwise only the neurons between the two positions have to be searched
     public boolean createsCycle(int inputId, int outputId) {
-        if (neurons.size() > Population.getConfig().getInt("cycleDetectionNeuronThreshold") || links.size() > Population.getConfig().getInt("cycleDetectionLinkThreshold")) {
-            return hasPathBFS(inputId, outputId);
-        } else {
-            return hasPathDFS(inputId, outputId);
+        ensureIndexes();
+        int source = indexOf(inputId);
+        int target = indexOf(outputId);
+
+        if (source == target) {
+            return true;
         }
+
+        if (order[source] < order[target]) {
+            return false;
+        }
+
+        GraphTraversal traversal = GraphTraversal.get(neurons.size());
+        traversal.beginSearch();
+
+        return collectForward(traversal, target, source) < 0;
     }
 
-    private boolean hasPathBFS(int inputId, int outputId) {
-        Set<Integer> visited = new HashSet<>();
-        Queue<Integer> queue = new LinkedList<>();
-        queue.add(outputId);
+    // Collects the neurons reachable from start that are positioned at most at stop into traversal.forward,
+    // returns -1 if stop is reachable
+    private int collectForward(GraphTraversal traversal, int start, int stop) {
+        int limit = order[stop];
+        int[] stack = traversal.stack;
+        int[] region = traversal.forward;
+        int size = 0;
+        int count = 0;
 
-        while (!queue.isEmpty()) {
-            int current = queue.poll();
-            if (current == inputId) return true;
+        stack[size++] = start;
+        traversal.visit(start);
 
-            if (visited.contains(current)) {
-                continue;
-            }
+        while (size > 0) {
+            int current = stack[--size];
+            if (current == stop) return -1;
+
+            region[count++] = current;
 
-            visited.add(current);
+            for (int i = 0; i < outDegree[current]; i++) {
+                int neighbor = successors[current][i];
 
-            for (int neighbor : adjacencyList.get(current)) {
-                if (!visited.contains(neighbor)) {
-                    queue.add(neighbor);
+                if (order[neighbor] <= limit && traversal.visit(neighbor)) {
+                    stack[size++] = neighbor;
                 }
             }
         }
 
-        return false;
+        return count;
     }
 
-    private boolean hasPathDFS(int inputId, int outputId) {
-        Set<Integer> visited = new HashSet<>();
-        Deque<Integer> stack = new ArrayDeque<>();
-        stack.add(outputId);
+    // Collects the neurons start is reachable from that are positioned at least at limit into traversal.backward
+    private int collectBackward(GraphTraversal traversal, int start, int limit) {
+        int[] stack = traversal.stack;
+        int[] region = traversal.backward;
+        int size = 0;
+        int count = 0;
 
-        while (!stack.isEmpty()) {
-            int current = stack.pop();
-            if (current == inputId) return true;
+        stack[size++] = start;
+        traversal.visit(start);
 
-            if (visited.contains(current)) {
-                continue;
-            }
+        while (size > 0) {
+            int current = stack[--size];
+            region[count++] = current;
 
-            visited.add(current);
+            for (int i = 0; i < inDegree[current]; i++) {
+                int neighbor = predecessors[current][i];
 
-            for (int id : adjacencyList.get(current)) {
-                if (!visited.contains(id)) {
-                    stack.add(id);
+                if (order[neighbor] >= limit && traversal.visit(neighbor)) {
+                    stack[size++] = neighbor;
                 }
             }
         }
 
-        return false;
+        return count;
     }
 
-    public LinkGene findLink(int inputId, int outputId) {
-        for (LinkGene link : links) {
-            if (link.getInputId() == inputId
-                    && link.getOutputId() == outputId) {
-                return link;
+    // Restores the topological order before a link from source to target is added. Everything between the two
+    // positions that reaches source is moved in front of everything target reaches, reusing the same positions.
+    private void placeLink(int source, int target) {
+        if (order[source] < order[target]) {
+            return;
+        }
+
+        GraphTraversal traversal = GraphTraversal.get(neurons.size());
+        traversal.beginSearch();
+
+        // Both searches share the visited marks, a neuron in both regions would already have been a cycle
+        int forwardCount = source == target ? -1 : collectForward(traversal, target, source);
+
+        if (forwardCount < 0) {
+            throw new IllegalArgumentException("A link from " + neurons.get(source).getId() + " to " + neurons.get(target).getId() + " would create a cycle");
+        }
+
+        int backwardCount = collectBackward(traversal, source, order[target]);
+        int[] forward = traversal.forward;
+        int[] backward = traversal.backward;
+        int[] positions = traversal.positions;
+
+        sortByOrder(traversal, backward, backwardCount);
+        sortByOrder(traversal, forward, forwardCount);
+
+        for (int i = 0; i < backwardCount; i++) {
+            positions[i] = order[backward[i]];
+        }
+
+        for (int i = 0; i < forwardCount; i++) {
+            positions[backwardCount + i] = order[forward[i]];
+        }
+
+        int total = backwardCount + forwardCount;
+        Arrays.sort(positions, 0, total);
+
+        for (int i = 0; i < total; i++) {
+            int neuron = i < backwardCount ? backward[i] : forward[i - backwardCount];
+
+            order[neuron] = positions[i];
+            neuronAt[positions[i]] = neuron;
+        }
+    }
+
+    private void sortByOrder(GraphTraversal traversal, int[] region, int count) {
+        long[] keys = traversal.keys;
+
+        for (int i = 0; i < count; i++) {
+            keys[i] = ((long) order[region[i]] << 32) | region[i];
+        }
+
+        Arrays.sort(keys, 0, count);
+
+        for (int i = 0; i < count; i++) {
+            region[i] = (int) keys[i];
+        }
+    }
+
+    // Hidden neurons sorted so that every link goes from an earlier to a later neuron
+    List<NeuronGene> getHiddenNeuronsInTopologicalOrder() {
+        ensureIndexes();
+        List<NeuronGene> hidden = new ArrayList<>(neurons.size() - amountOfInputs - amountOfOutputs);
+
+        for (int position = 0; position < neurons.size(); position++) {
+            if (neuronAt[position] >= amountOfInputs + amountOfOutputs) {
+                hidden.add(neurons.get(neuronAt[position]));
             }
         }
 
-        return null;
+        return hidden;
+    }
+
+    public LinkGene findLink(int inputId, int outputId) {
+        ensureIndexes();
+        int position = linkIndex.get(LinkGene.convertToLong(inputId, outputId));
+
+        return position < 0 ? null : links.get(position);
     }
 
     public NeuronGene getNeuronFromId(int id) {
-        return idToNeuron.get(id);
+        ensureIndexes();
+        int index = idToIndex.get(id);
+
+        return index < 0 ? null : neurons.get(index);
     }
 
     public void addNeuron(NeuronGene neuron) {
+        attachGenes();
+        ensureIndexesWritable();
         neurons.addLast(neuron);
-        idToNeuron.put(neuron.getId(), neuron);
-        adjacencyList.put(neuron.getId(), new ArrayList<>());
+        indexNeuron(neuron.getId(), neurons.size() - 1);
+        neuron.setOwner(owner());
+        structureVersion++;
+        version++;
     }
 
     public void addLink(LinkGene link) {
-        adjacencyList.get(link.getInputId()).add(link.getOutputId());
+        attachGenes();
+        ensureIndexesWritable();
+        placeLink(indexOf(link.getInputId()), indexOf(link.getOutputId()));
+        indexLink(link, links.size());
+        links.addLast(link);
+        link.setOwner(owner());
+        structureVersion++;
+        version++;
+    }
 
-        for (int i = links.size() - 1; i >= 0; i--) {
-            if (links.get(i).getOutputId() == link.getInputId()) {
-                links.add(i + 1, link);
-                return;
-            }
+    // Uses Xavier initialization
+    public void reinitializeLinkWithXavier(LinkGene link) {
+        ensureIndexes();
+        int inputSize = inDegree[indexOf(link.getInputId())];
+        int outputSize = outDegree[indexOf(link.getOutputId())];
+        LinkGene writable = findLink(link.getInputId(), link.getOutputId()) == null ? link : editLink(link);
+
+        writable.initializeWeight(inputSize, outputSize);
+    }
+
+    private void ensureIndexes() {
+        if (idToIndex != null) {
+            return;
+        }
+
+        int capacity = Math.max(8, neurons.size());
+        idToIndex = new IntIntHashMap(-1, capacity);
+        successors = new int[capacity][];
+        predecessors = new int[capacity][];
+        inDegree = new int[capacity];
+        outDegree = new int[capacity];
+        order = new int[capacity];
+        neuronAt = new int[capacity];
+        linkIndex = new LongIntHashMap(-1, links.size());
+        enabledLinks = new IndexedIntSet(links.size());
+        enabledLinksShared = false;
+
+        for (int i = 0; i < neurons.size(); i++) {
+            indexNeuron(neurons.get(i).getId(), i);
         }
 
-        links.addFirst(link);
+        for (int i = 0; i < links.size(); i++) {
+            indexLink(links.get(i), i);
+        }
+
+        sortTopologically();
     }
 
-    // Uses Xavier initialization
-    public void reinitializeLinkWithXavier(LinkGene link) {
-        int inputSize = 0;
-        int outputSize = adjacencyList.get(link.getOutputId()).size();
+    private void ensureIndexesWritable() {
+        ensureIndexes();
+        ensureEnabledLinksWritable();
+
+        if (!indexesShared) {
+            return;
+        }
 
-        for (LinkGene compareLink : links) {
-            if (compareLink.getOutputId() == link.getInputId()) {
-                inputSize++;
+        idToIndex = new IntIntHashMap(idToIndex);
+        successors = copyRows(successors);
+        predecessors = copyRows(predecessors);
+        inDegree = inDegree.clone();
+        outDegree = outDegree.clone();
+        order = order.clone();
+        neuronAt = neuronAt.clone();
+        linkIndex = new LongIntHashMap(linkIndex);
+        indexesShared = false;
+    }
+
+    private void ensureEnabledLinksWritable() {
+        if (enabledLinksShared) {
+            enabledLinks = new IndexedIntSet(enabledLinks);
+            enabledLinksShared = false;
+        }
+    }
+
+    // Called by a link of this genome after it was enabled or disabled
+    private void updateEnabledLink(LinkGene link) {
+        if (idToIndex == null) {
+            return;
+        }
+
+        ensureEnabledLinksWritable();
+        int position = linkIndex.get(link.convertToLong());
+
+        if (link.isEnabled()) {
+            enabledLinks.add(position);
+        } else {
+            enabledLinks.remove(position);
+        }
+    }
+
+    private int[][] copyRows(int[][] rows) {
+        int[][] copy = rows.clone();
+
+        for (int i = 0; i < neurons.size(); i++) {
+            copy[i] = copy[i].clone();
+        }
+
+        return copy;
+    }
+
+    // Kahn's algorithm, only needed when the indexes are built from existing genes
+    private void sortTopologically() {
+        int[] remaining = Arrays.copyOf(inDegree, neurons.size());
+        int head = 0;
+        int tail = 0;
+
+        for (int i = 0; i < neurons.size(); i++) {
+            if (remaining[i] == 0) {
+                neuronAt[tail++] = i;
             }
         }
 
-        link.initializeWeight(inputSize, outputSize);
+        while (head < tail) {
+            int current = neuronAt[head];
+            order[current] = head++;
+
+            for (int i = 0; i < outDegree[current]; i++) {
+                int neighbor = successors[current][i];
+
+                if (--remaining[neighbor] == 0) {
+                    neuronAt[tail++] = neighbor;
+                }
+            }
+        }
+
+        if (tail != neurons.size()) {
+            throw new IllegalStateException("The genome contains a cycle");
+        }
+    }
+
+    private void indexNeuron(int id, int index) {
+        if (index == successors.length) {
+            int capacity = successors.length * 2;
+            successors = Arrays.copyOf(successors, capacity);
+            predecessors = Arrays.copyOf(predecessors, capacity);
+            inDegree = Arrays.copyOf(inDegree, capacity);
+            outDegree = Arrays.copyOf(outDegree, capacity);
+            order = Arrays.copyOf(order, capacity);
+            neuronAt = Arrays.copyOf(neuronAt, capacity);
+        }
+
+        idToIndex.put(id, index);
+        successors[index] = new int[2];
+        predecessors[index] = new int[2];
+        // New neurons are placed last, nothing links to them yet
+        order[index] = index;
+        neuronAt[index] = index;
+    }
+
+    private void indexLink(LinkGene link, int position) {
+        int source = indexOf(link.getInputId());
+        int target = indexOf(link.getOutputId());
+
+        if (outDegree[source] == successors[source].length) {
+            successors[source] = Arrays.copyOf(successors[source], outDegree[source] * 2);
+        }
+
+        if (inDegree[target] == predecessors[target].length) {
+            predecessors[target] = Arrays.copyOf(predecessors[target], inDegree[target] * 2);
+        }
+
+        successors[source][outDegree[source]++] = target;
+        predecessors[target][inDegree[target]++] = source;
+        // Callers check findLink before adding, so there is a single link per input and output
+        linkIndex.putIfAbsent(link.convertToLong(), position);
+
+        if (link.isEnabled()) {
+            enabledLinks.add(position);
+        }
+    }
+
+    private int indexOf(int id) {
+        int index = idToIndex.get(id);
+
+        if (index < 0) {
+            throw new IllegalArgumentException("There is no neuron with id " + id);
+        }
+
+        return index;
     }
 
     public void addLinkWithXavier(int inputId, int outputId) {
-        LinkGene link = new LinkGene(inputId, outputId);
+        LinkGene link = GenePool.newLink(inputId, outputId, 1, true);
         reinitializeLinkWithXavier(link);
         addLink(link);
     }
 
+    @Override
     public int getAmountOfInputs() {
         return amountOfInputs;
     }
@@ -253,71 +765,85 @@ public class Genome implements Serializable {
         return new ArrayList<>(neurons.subList(0, amountOfInputs));
     }
 
+    @Override
     public int getAmountOfOutputs() {
         return amountOfOutputs;
     }
 
+    // The random picks below choose a position instead of collecting candidates: inputs are at positions
+    // 0, ..., amountOfInputs - 1, outputs follow, and hidden neurons take the remaining positions
     public NeuronGene getRandomHidden() {
-        List<NeuronGene> hidden = getHiddenNeurons();
+        int hidden = neurons.size() - amountOfInputs - amountOfOutputs;
 
-        if (hidden.isEmpty()) {
+        if (hidden == 0) {
             return null;
         }
 
-        return hidden.get(RandomUtil.random.nextInt(hidden.size()));
+        return neurons.get(amountOfInputs + amountOfOutputs + RandomUtil.get().nextInt(hidden));
     }
 
     public int getRandomInputOrHiddenId() {
-        List<NeuronGene> choose = getInputNeurons();
-        choose.addAll(neurons.subList(amountOfInputs + amountOfOutputs, neurons.size()));
+        int position = RandomUtil.get().nextInt(neurons.size() - amountOfOutputs);
 
-        return choose.get(RandomUtil.random.nextInt(choose.size())).getId();
+        return neurons.get(position < amountOfInputs ? position : position + amountOfOutputs).getId();
     }
 
     public int getRandomHiddenOrOutputId(int exceptionId) {
-        List<Integer> ids = new ArrayList<>();
-
-        for (int i = amountOfInputs; i < neurons.size(); i++) {
-            int neuronId = neurons.get(i).getId();
+        ensureIndexes();
+        int exception = idToIndex.get(exceptionId);
+        boolean excluded = exception >= amountOfInputs;
+        int position = amountOfInputs + RandomUtil.get().nextInt(neurons.size() - amountOfInputs - (excluded ? 1 : 0));
 
-            if (neuronId != exceptionId) {
-                ids.add(neuronId);
-            }
+        if (excluded && position >= exception) {
+            position++;
         }
 
-        return ids.get(RandomUtil.random.nextInt(ids.size()));
+        return neurons.get(position).getId();
     }
 
     public NeuronGene getRandomHiddenOrOutput() {
-        return neurons.get(RandomUtil.random.nextInt(amountOfInputs, neurons.size()));
+        return neurons.get(RandomUtil.get().nextInt(amountOfInputs, neurons.size()));
     }
 
+    // The lists can not be modified, genes are added with addNeuron and addLink and changed through editNeuron and editLink.
+    // The genes in them may be shared with copies of the genome: since copy() is copy on write, setWeight, setBias,
+    // setActivation, enable and disable on such a gene throw an IllegalStateException instead of changing both genomes.
+    // Code that changed genes through these lists has to get the gene from editLink or editNeuron first
     public List<NeuronGene> getNeurons() {
-        return neurons;
+        return Collections.unmodifiableList(neurons);
     }
 
     public int getNeuronsSize() {
         return neurons.size();
     }
 
+    // Unmodifiable like getNeurons, change the genes through editNeuron
     public List<NeuronGene> getHiddenNeurons() {
-        return neurons.subList(amountOfInputs + amountOfOutputs, neurons.size());
+        return Collections.unmodifiableList(neurons.subList(amountOfInputs + amountOfOutputs, neurons.size()));
     }
 
+    // Unmodifiable like getNeurons, change the genes through editLink
     public List<LinkGene> getLinks() {
-        return links;
+        return Collections.unmodifiableList(links);
     }
 
+    // Random enabled link, null if there is none
     public LinkGene getRandomLink() {
-        List<LinkGene> enabledLinks = links.stream()
-                .filter(LinkGene::isEnabled)
-                .toList();
+        // Links only report being enabled or disabled once attached
+        attachGenes();
+        ensureIndexes();
 
-        if (enabledLinks.isEmpty()) {
+        if (enabledLinks.size() == 0) {
             return null;
         }
 
-        return enabledLinks.get(RandomUtil.random.nextInt(enabledLinks.size()));
+        return links.get(enabledLinks.get(RandomUtil.get().nextInt(enabledLinks.size())));
+    }
+
+    public int getEnabledLinkCount() {
+        attachGenes();
+        ensureIndexes();
+        return enabledLinks.size();
     }
 
     public static Genome createCompletelyConnectedGenome(int amountOfInputs, int amountOfOutputs) {
@@ -411,4 +937,28 @@ public class Genome implements Serializable {
         return neurons.size() + (int) links.stream().filter(LinkGene::isEnabled).count();
     }
 
+    // The right to change genes in place. copy() gives the original genome a new owner and retires the old one,
+    // so the genes it now shares keep an owner without a genome.
+    static final class Owner {
+        // Null once retired
+        private Genome genome;
+
+        private Owner(Genome genome) {
+            this.genome = genome;
+        }
+
+        // Called by a gene before it changes
+        void change() {
+            if (genome == null) {
+                throw new IllegalStateException("The gene is shared between copies of a genome, change it through Genome.editLink or Genome.editNeuron");
+            }
+
+            genome.version++;
+        }
+
+        // Called by a link after it was enabled or disabled
+        void enabledChanged(LinkGene link) {
+            genome.updateEnabledLink(link);
+        }
+    }
 }
@@ -0,0 +1,177 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.util.Arrays;
+
+// Removes genes that no longer affect the network from the genomes of every new generation, read from the config
+// whenever it is (re)loaded. Disabled links are removed once they have been disabled for compactDisabledLinksAfter
+// generations, or, longest disabled first, while they make up more than maxDisabledLinkRatio of the links of a genome.
+// With removeDeadNeurons, hidden neurons without a path to an output are removed together with their links.
+// Every setting is optional and off by default.
+final class GenomeCompactor {
+    // Estimated bytes per removed gene: the gene, its slot in the gene list and its entries in the genome indexes
+    static final int LINK_BYTES = 88;
+    static final int NEURON_BYTES = 120;
+
+    private static volatile GenomeCompactor current = new GenomeCompactor(0, 1, false);
+
+    private final int maxDisabledAge;
+    private final double maxDisabledRatio;
+    private final boolean removeDeadNeurons;
+
+    private GenomeCompactor(int maxDisabledAge, double maxDisabledRatio, boolean removeDeadNeurons) {
+        this.maxDisabledAge = maxDisabledAge;
+        this.maxDisabledRatio = maxDisabledRatio;
+        this.removeDeadNeurons = removeDeadNeurons;
+    }
+
+    static void update(ConfigLoader config) {
+        current = new GenomeCompactor(
+                config.getSring("compactDisabledLinksAfter") == null ? 0 : config.getInt("compactDisabledLinksAfter"),
+                config.getSring("maxDisabledLinkRatio") == null ? 1 : config.getDouble("maxDisabledLinkRatio"),
+                config.getBoolean("removeDeadNeurons"));
+    }
+
+    static GenomeCompactor get() {
+        return current;
+    }
+
+    boolean isEnabled() {
+        return maxDisabledAge > 0 || maxDisabledRatio < 1 || removeDeadNeurons;
+    }
+
+    // Compacts the genome of an individual of the given generation and adds what was removed to stats
+    void compact(Genome genome, int generation, CompactionStats stats) {
+        int neuronCount = genome.getNeuronsSize();
+        int linkCount = genome.getLinks().size();
+        boolean[] keepLink = new boolean[linkCount];
+        int removedLinks = 0;
+        int disabled = 0;
+
+        for (int position = 0; position < linkCount; position++) {
+            LinkGene link = genome.getLink(position);
+            keepLink[position] = true;
+
+            if (link.isEnabled()) {
+                continue;
+            }
+
+            if (link.getDisabledSince() == 0) {
+                link.setDisabledSince(generation);
+            }
+
+            if (maxDisabledAge > 0 && generation - link.getDisabledSince() >= maxDisabledAge) {
+                keepLink[position] = false;
+                removedLinks++;
+            } else {
+                disabled++;
+            }
+        }
+
+        if (disabled > maxDisabledRatio * (linkCount - removedLinks)) {
+            // Generation in the high half, position in the low half, so sorting puts the longest disabled first
+            long[] candidates = new long[disabled];
+            int count = 0;
+
+            for (int position = 0; position < linkCount; position++) {
+                LinkGene link = genome.getLink(position);
+
+                if (keepLink[position] && !link.isEnabled()) {
+                    candidates[count++] = (long) link.getDisabledSince() << 32 | position;
+                }
+            }
+
+            Arrays.sort(candidates);
+
+            for (int i = 0; i < count && disabled > maxDisabledRatio * (linkCount - removedLinks); i++) {
+                keepLink[(int) candidates[i]] = false;
+                removedLinks++;
+                disabled--;
+            }
+        }
+
+        boolean[] keepNeuron = new boolean[neuronCount];
+        int removedNeurons = 0;
+
+        if (removeDeadNeurons) {
+            removedNeurons = markLiveNeurons(genome, keepLink, keepNeuron);
+
+            for (int position = 0; position < linkCount; position++) {
+                LinkGene link = genome.getLink(position);
+
+                if (keepLink[position] && (!keepNeuron[genome.getNeuronPosition(link.getInputId())]
+                        || !keepNeuron[genome.getNeuronPosition(link.getOutputId())])) {
+                    keepLink[position] = false;
+                    removedLinks++;
+                }
+            }
+        } else {
+            Arrays.fill(keepNeuron, true);
+        }
+
+        if (removedLinks == 0 && removedNeurons == 0) {
+            return;
+        }
+
+        genome.retain(keepNeuron, keepLink);
+        stats.add(removedLinks, removedNeurons);
+    }
+
+    // Marks the inputs, the outputs and every neuron with a path over the kept links to an output, returns how many are not marked
+    private static int markLiveNeurons(Genome genome, boolean[] keepLink, boolean[] live) {
+        int neuronCount = live.length;
+        int fixedNeurons = genome.getAmountOfInputs() + genome.getAmountOfOutputs();
+
+        // Sources of the kept links into neuron p are sources[incomingStart[p]], ..., sources[incomingStart[p + 1] - 1]
+        int[] incomingStart = new int[neuronCount + 1];
+        int keptLinks = 0;
+
+        for (int position = 0; position < keepLink.length; position++) {
+            if (keepLink[position]) {
+                incomingStart[genome.getNeuronPosition(genome.getLink(position).getOutputId()) + 1]++;
+                keptLinks++;
+            }
+        }
+
+        for (int p = 0; p < neuronCount; p++) {
+            incomingStart[p + 1] += incomingStart[p];
+        }
+
+        int[] sources = new int[keptLinks];
+        int[] next = Arrays.copyOf(incomingStart, neuronCount);
+
+        for (int position = 0; position < keepLink.length; position++) {
+            if (keepLink[position]) {
+                LinkGene link = genome.getLink(position);
+                sources[next[genome.getNeuronPosition(link.getOutputId())]++] = genome.getNeuronPosition(link.getInputId());
+            }
+        }
+
+        // Backwards from the outputs, inputs and outputs are at the first positions and always kept
+        int[] stack = new int[neuronCount];
+        int top = 0;
+
+        for (int p = 0; p < fixedNeurons; p++) {
+            live[p] = true;
+
+            if (p >= genome.getAmountOfInputs()) {
+                stack[top++] = p;
+            }
+        }
+
+        int reached = fixedNeurons;
+
+        while (top > 0) {
+            int p = stack[--top];
+
+            for (int i = incomingStart[p]; i < incomingStart[p + 1]; i++) {
+                if (!live[sources[i]]) {
+                    live[sources[i]] = true;
+                    stack[top++] = sources[i];
+                    reached++;
+                }
+            }
+        }
+
+        return neuronCount - reached;
+    }
+}
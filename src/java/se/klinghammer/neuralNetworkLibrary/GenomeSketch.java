@@ -0,0 +1,84 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.util.Arrays;
+
+// MinHash sketch of a genome for approximate speciation, grouped into bands for locality sensitive hashing.
+// The sketched set holds the ids of the hidden neurons and every link key together with the cell of its weight in a
+// grid of width weightQuantum, so genomes only share a link where their weights are close as well. Every row shifts
+// the grid by its own random offset, two weights a distance d apart then share a cell in a row with probability
+// 1 - d / weightQuantum, wherever they lie.
+// Two genomes agree on a row with a probability equal to the Jaccard similarity of their sets, and end up in the same
+// bucket of a band when they agree on all rows of it.
+final class GenomeSketch {
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+    private static final long ROW_SEED = 0xD1B54A32D192ED03L;
+    // Keeps neuron ids apart from link keys, whose highest bit is never set
+    private static final long NEURON_TAG = 1L << 63;
+
+    private GenomeSketch() {
+    }
+
+    // One bucket key per band, the band number is part of the key so equal rows in different bands do not collide
+    static long[] bandKeys(Genome genome, int bands, int rows, double weightQuantum) {
+        int size = bands * rows;
+        long[] minimum = new long[size];
+        long[] seed = new long[size];
+        double[] shift = new double[size];
+        Arrays.fill(minimum, Long.MAX_VALUE);
+
+        for (int k = 0; k < size; k++) {
+            seed[k] = mix((k + 1) * GOLDEN);
+            shift[k] = (mix((k + 1) * ROW_SEED) >>> 11) * 0x1.0p-53;
+        }
+
+        for (int position = genome.getAmountOfInputs() + genome.getAmountOfOutputs(); position < genome.getNeuronsSize(); position++) {
+            long element = mix(NEURON_TAG | genome.getNeuron(position).getId());
+
+            for (int k = 0; k < size; k++) {
+                minimum[k] = Math.min(minimum[k], rowHash(element, seed[k]));
+            }
+        }
+
+        for (int position = 0; position < genome.getLinks().size(); position++) {
+            LinkGene link = genome.getLink(position);
+            long element = mix(link.convertToLong());
+            double scaled = link.getWeight() / weightQuantum;
+
+            for (int k = 0; k < size; k++) {
+                long cell = (long) Math.floor(scaled + shift[k]);
+
+                minimum[k] = Math.min(minimum[k], rowHash(element + cell * ROW_SEED, seed[k]));
+            }
+        }
+
+        long[] keys = new long[bands];
+
+        for (int band = 0; band < bands; band++) {
+            long key = mix(band + 1);
+
+            for (int row = 0; row < rows; row++) {
+                key = mix(key ^ minimum[band * rows + row]);
+            }
+
+            // Long.MIN_VALUE is reserved by LongIntHashMap
+            keys[band] = key == Long.MIN_VALUE ? 0 : key;
+        }
+
+        return keys;
+    }
+
+    // Hash of an already mixed element for one row, a single multiply is enough to give every row its own order
+    private static long rowHash(long element, long seed) {
+        long z = (element ^ seed) * 0xBF58476D1CE4E5B9L;
+
+        return z ^ (z >>> 29);
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+
+        return z ^ (z >>> 31);
+    }
+}
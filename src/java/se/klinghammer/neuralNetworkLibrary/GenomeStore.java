@@ -0,0 +1,330 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+// Population storage that packs the genes of many genomes into off heap columns instead of one object per gene.
+// A stored neuron takes 21 bytes and a stored link 17, and the garbage collector never scans them,
+// so populations of millions of small networks fit in a few GB with a heap that barely grows.
+//
+// Genomes are stored in evaluation order, the same layout CompiledNetwork uses: neurons as inputs, hidden neurons
+// in topological order, then outputs, and links grouped by the slot of their source neuron. The position columns
+// remember where every gene was in the genome, so materialize gives back a genome with the same gene order.
+// View evaluates a stored genome in place, materialize returns an ordinary Genome for mutation and crossover.
+// Genome and View are both NetworkEvaluators, so fitness code written against NetworkEvaluator takes either.
+//
+// The store is not a Genome itself and Population does not keep its generation in it. Reproduction mutates and
+// crosses over every genome through its genes and indexes, so each one would be materialized every generation
+// anyway. The store holds genomes that are only evaluated, like an archive or a population evaluated outside of
+// Population, with its views. Genomes change through materialize and are stored again.
+//
+// Adding genomes is not thread safe, views can be evaluated from several threads once the genomes are added.
+public final class GenomeStore {
+    private static final Activation[] ACTIVATIONS = Activation.values();
+    private static final ThreadLocal<double[]> valueBuffer = ThreadLocal.withInitial(() -> new double[0]);
+
+    private final int amountOfInputs;
+    private final int amountOfOutputs;
+
+    // Neuron columns, indexed by neuronOffset[genome] + slot
+    private final OffHeapColumn neuronId = new OffHeapColumn(4);
+    private final OffHeapColumn neuronBias = new OffHeapColumn(8);
+    private final OffHeapColumn neuronActivation = new OffHeapColumn(1);
+    private final OffHeapColumn neuronPosition = new OffHeapColumn(4);
+    // Links with the neuron as source are the links up to neuronLinkEnd, starting where those of the previous slot end
+    private final OffHeapColumn neuronLinkEnd = new OffHeapColumn(4);
+
+    // Link columns, indexed by linkOffset[genome] + i. The target is a neuron slot within the genome
+    private final OffHeapColumn linkWeight = new OffHeapColumn(8);
+    private final OffHeapColumn linkEnabled = new OffHeapColumn(1);
+    private final OffHeapColumn linkTarget = new OffHeapColumn(4);
+    private final OffHeapColumn linkPosition = new OffHeapColumn(4);
+
+    // Per genome offsets, a few primitive arrays for the whole population
+    private long[] neuronOffset = new long[16];
+    private long[] linkOffset = new long[16];
+    private int[] neuronCount = new int[16];
+    private int[] linkCount = new int[16];
+
+    private int size;
+    private long neuronTotal;
+    private long linkTotal;
+
+    public GenomeStore(int amountOfInputs, int amountOfOutputs) {
+        if (amountOfInputs <= 0 || amountOfOutputs <= 0) {
+            throw new IllegalArgumentException("There has to be at least one input- and one output neuron");
+        }
+
+        this.amountOfInputs = amountOfInputs;
+        this.amountOfOutputs = amountOfOutputs;
+    }
+
+    // Packs the genome and returns its index in the store
+    public int add(Genome genome) {
+        if (genome.getAmountOfInputs() != amountOfInputs || genome.getAmountOfOutputs() != amountOfOutputs) {
+            throw new IllegalArgumentException("The genome has " + genome.getAmountOfInputs() + " inputs and "
+                    + genome.getAmountOfOutputs() + " outputs, the store " + amountOfInputs + " and " + amountOfOutputs);
+        }
+
+        List<NeuronGene> hidden = genome.getHiddenNeuronsInTopologicalOrder();
+        List<LinkGene> links = genome.getLinks();
+        int neurons = amountOfInputs + hidden.size() + amountOfOutputs;
+        int outputStart = amountOfInputs + hidden.size();
+
+        if (size == neuronOffset.length) {
+            neuronOffset = Arrays.copyOf(neuronOffset, size * 2);
+            linkOffset = Arrays.copyOf(linkOffset, size * 2);
+            neuronCount = Arrays.copyOf(neuronCount, size * 2);
+            linkCount = Arrays.copyOf(linkCount, size * 2);
+        }
+
+        // A genome never crosses a chunk boundary, so a view can look its chunks up once per evaluation
+        long neuronStart = OffHeapColumn.alignToChunk(neuronTotal, neurons);
+        long linkStart = OffHeapColumn.alignToChunk(linkTotal, links.size());
+
+        neuronId.ensureCapacity(neuronStart + neurons);
+        neuronBias.ensureCapacity(neuronStart + neurons);
+        neuronActivation.ensureCapacity(neuronStart + neurons);
+        neuronPosition.ensureCapacity(neuronStart + neurons);
+        neuronLinkEnd.ensureCapacity(neuronStart + neurons);
+        linkWeight.ensureCapacity(linkStart + links.size());
+        linkEnabled.ensureCapacity(linkStart + links.size());
+        linkTarget.ensureCapacity(linkStart + links.size());
+        linkPosition.ensureCapacity(linkStart + links.size());
+
+        IntIntHashMap idToSlot = new IntIntHashMap(-1, neurons);
+
+        for (int slot = 0; slot < neurons; slot++) {
+            NeuronGene neuron;
+
+            if (slot < amountOfInputs) {
+                neuron = genome.getNeuron(slot);
+            } else if (slot < outputStart) {
+                neuron = hidden.get(slot - amountOfInputs);
+            } else {
+                neuron = genome.getNeuron(amountOfInputs + slot - outputStart);
+            }
+
+            long index = neuronStart + slot;
+            idToSlot.put(neuron.getId(), slot);
+            neuronId.putInt(index, neuron.getId());
+            neuronBias.putDouble(index, neuron.getBias());
+            neuronActivation.putByte(index, (byte) neuron.getActivation().ordinal());
+            neuronPosition.putInt(index, genome.getNeuronPosition(neuron.getId()));
+        }
+
+        // Counting sort of the links on source slot
+        int[] next = new int[neurons + 1];
+
+        for (LinkGene link : links) {
+            next[idToSlot.get(link.getInputId()) + 1]++;
+        }
+
+        for (int slot = 0; slot < neurons; slot++) {
+            next[slot + 1] += next[slot];
+            neuronLinkEnd.putInt(neuronStart + slot, next[slot + 1]);
+        }
+
+        for (int position = 0; position < links.size(); position++) {
+            LinkGene link = links.get(position);
+            int source = idToSlot.get(link.getInputId());
+            long index = linkStart + next[source]++;
+
+            linkWeight.putDouble(index, link.getWeight());
+            linkEnabled.putByte(index, (byte) (link.isEnabled() ? 1 : 0));
+            linkTarget.putInt(index, idToSlot.get(link.getOutputId()));
+            linkPosition.putInt(index, position);
+        }
+
+        neuronOffset[size] = neuronStart;
+        linkOffset[size] = linkStart;
+        neuronCount[size] = neurons;
+        linkCount[size] = links.size();
+        neuronTotal = neuronStart + neurons;
+        linkTotal = linkStart + links.size();
+
+        return size++;
+    }
+
+    // New genome with the genes of the stored genome, in the order they had when it was added
+    public Genome materialize(int index) {
+        checkIndex(index);
+
+        NeuronGene[] neurons = new NeuronGene[neuronCount[index]];
+        LinkGene[] links = new LinkGene[linkCount[index]];
+        long neuronStart = neuronOffset[index];
+        long linkStart = linkOffset[index];
+
+        for (int slot = 0; slot < neurons.length; slot++) {
+            long i = neuronStart + slot;
+            neurons[neuronPosition.getInt(i)] = GenePool.newNeuron(neuronId.getInt(i), neuronBias.getDouble(i), ACTIVATIONS[neuronActivation.getByte(i)]);
+        }
+
+        for (int slot = 0, j = 0; slot < neurons.length; slot++) {
+            int inputId = neuronId.getInt(neuronStart + slot);
+
+            for (int end = neuronLinkEnd.getInt(neuronStart + slot); j < end; j++) {
+                long i = linkStart + j;
+                links[linkPosition.getInt(i)] = GenePool.newLink(inputId, neuronId.getInt(neuronStart + linkTarget.getInt(i)),
+                        linkWeight.getDouble(i), linkEnabled.getByte(i) != 0);
+            }
+        }
+
+        Genome genome = new Genome(amountOfInputs, amountOfOutputs, false);
+
+        for (NeuronGene neuron : neurons) {
+            genome.addNeuron(neuron);
+        }
+
+        for (LinkGene link : links) {
+            genome.addLink(link);
+        }
+
+        return genome;
+    }
+
+    public View view(int index) {
+        checkIndex(index);
+        return new View(index);
+    }
+
+    // Forgets every genome but keeps the memory, so the next generation can be stored without allocating
+    public void clear() {
+        size = 0;
+        neuronTotal = 0;
+        linkTotal = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getNeuronCount() {
+        return neuronTotal;
+    }
+
+    public long getLinkCount() {
+        return linkTotal;
+    }
+
+    public long getOffHeapBytes() {
+        return neuronId.getAllocatedBytes() + neuronBias.getAllocatedBytes() + neuronActivation.getAllocatedBytes()
+                + neuronPosition.getAllocatedBytes() + neuronLinkEnd.getAllocatedBytes() + linkWeight.getAllocatedBytes()
+                + linkEnabled.getAllocatedBytes() + linkTarget.getAllocatedBytes() + linkPosition.getAllocatedBytes();
+    }
+
+    public int getAmountOfInputs() {
+        return amountOfInputs;
+    }
+
+    public int getAmountOfOutputs() {
+        return amountOfOutputs;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+    }
+
+    // Evaluates a stored genome without materializing it, gives the same outputs as Genome.propagate.
+    // A view reads the store on every call, it becomes invalid when the store is cleared
+    public final class View implements NetworkEvaluator {
+        private final int index;
+
+        private View(int index) {
+            this.index = index;
+        }
+
+        public double[] propagate(double[] inputs) {
+            double[] outputs = new double[amountOfOutputs];
+            propagate(inputs, outputs);
+            return outputs;
+        }
+
+        @Override
+        public void propagate(double[] inputs, double[] outputs) {
+            int neurons = neuronCount[index];
+            int outputStart = neurons - amountOfOutputs;
+            double[] values = valueBuffer.get();
+
+            if (values.length < neurons) {
+                values = new double[neurons];
+                valueBuffer.set(values);
+            }
+
+            long neuronStart = neuronOffset[index];
+            long linkStart = linkOffset[index];
+            ByteBuffer bias = neuronBias.chunk(neuronStart);
+            ByteBuffer activations = neuronActivation.chunk(neuronStart);
+            ByteBuffer linkEnds = neuronLinkEnd.chunk(neuronStart);
+            ByteBuffer weight = linkWeight.chunk(linkStart);
+            ByteBuffer enabled = linkEnabled.chunk(linkStart);
+            ByteBuffer targets = linkTarget.chunk(linkStart);
+            int biasOffset = neuronBias.offset(neuronStart);
+            int activationOffset = neuronActivation.offset(neuronStart);
+            int linkEndOffset = neuronLinkEnd.offset(neuronStart);
+            int weightOffset = linkWeight.offset(linkStart);
+            int enabledOffset = linkEnabled.offset(linkStart);
+            int targetOffset = linkTarget.offset(linkStart);
+
+            System.arraycopy(inputs, 0, values, 0, amountOfInputs);
+
+            for (int slot = amountOfInputs; slot < neurons; slot++) {
+                values[slot] = bias.getDouble(biasOffset + (slot << 3));
+            }
+
+            ActivationResolver resolver = ActivationResolver.get();
+            int link = 0;
+
+            // Links are grouped by source slot, so every source is final once the links before it are applied
+            for (int source = 0; source < outputStart; source++) {
+                int end = linkEnds.getInt(linkEndOffset + (source << 2));
+
+                if (link == end) {
+                    continue;
+                }
+
+                double value = values[source];
+
+                if (source >= amountOfInputs) {
+                    Activation activation = resolver.resolveHidden(ACTIVATIONS[activations.get(activationOffset + source)]);
+                    value = resolver.isApproximate() ? activation.approximate(value) : activation.activate(value);
+                }
+
+                for (; link < end; link++) {
+                    if (enabled.get(enabledOffset + link) != 0) {
+                        values[targets.getInt(targetOffset + (link << 2))] += value * weight.getDouble(weightOffset + (link << 3));
+                    }
+                }
+            }
+
+            for (int i = 0; i < amountOfOutputs; i++) {
+                outputs[i] = resolver.activateOutput(values[outputStart + i]);
+            }
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getNeuronCount() {
+            return neuronCount[index];
+        }
+
+        public int getLinkCount() {
+            return linkCount[index];
+        }
+
+        @Override
+        public int getAmountOfInputs() {
+            return amountOfInputs;
+        }
+
+        @Override
+        public int getAmountOfOutputs() {
+            return amountOfOutputs;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.util.Arrays;
+
+// Reusable buffers for searches over the neuron indexes of a genome. Every thread gets its own instance,
+// so mutation workers can search concurrently and a search allocates nothing once the buffers are large enough.
+// Visited neurons are stamped with the number of the current search, so starting a new search clears nothing.
+final class GraphTraversal {
+    private static final ThreadLocal<GraphTraversal> current = ThreadLocal.withInitial(GraphTraversal::new);
+
+    private int[] stamps = new int[0];
+    private int epoch;
+
+    int[] stack = new int[0];
+    int[] forward = new int[0];
+    int[] backward = new int[0];
+    int[] positions = new int[0];
+    long[] keys = new long[0];
+
+    private GraphTraversal() {
+    }
+
+    // Buffers of the calling thread, large enough for a genome with neuronCount neurons
+    static GraphTraversal get(int neuronCount) {
+        GraphTraversal traversal = current.get();
+
+        if (traversal.stamps.length < neuronCount) {
+            traversal.grow(Math.max(neuronCount, traversal.stamps.length * 2));
+        }
+
+        return traversal;
+    }
+
+    // Marks every neuron as not visited
+    void beginSearch() {
+        if (++epoch == 0) {
+            Arrays.fill(stamps, 0);
+            epoch = 1;
+        }
+    }
+
+    // Returns false if the neuron was already visited during the current search
+    boolean visit(int neuron) {
+        if (stamps[neuron] == epoch) {
+            return false;
+        }
+
+        stamps[neuron] = epoch;
+        return true;
+    }
+
+    private void grow(int capacity) {
+        stamps = Arrays.copyOf(stamps, capacity);
+        stack = new int[capacity];
+        forward = new int[capacity];
+        backward = new int[capacity];
+        positions = new int[capacity];
+        keys = new long[capacity];
+    }
+}
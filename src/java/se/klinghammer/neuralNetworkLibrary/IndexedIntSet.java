@@ -0,0 +1,66 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.util.Arrays;
+
+// Set of non negative ints, such as gene positions, with constant time add, remove and random pick.
+// The elements are kept densely in an array, removing one moves the last element into its place.
+final class IndexedIntSet {
+    private int[] elements;
+    // indexes[value] is the index of value in elements plus one, 0 when value is not in the set
+    private int[] indexes;
+    private int size;
+
+    IndexedIntSet(int expectedValues) {
+        elements = new int[Math.max(8, expectedValues)];
+        indexes = new int[Math.max(8, expectedValues)];
+    }
+
+    IndexedIntSet(IndexedIntSet other) {
+        elements = other.elements.clone();
+        indexes = other.indexes.clone();
+        size = other.size;
+    }
+
+    void add(int value) {
+        if (value >= indexes.length) {
+            indexes = Arrays.copyOf(indexes, Math.max(value + 1, indexes.length * 2));
+        }
+
+        if (indexes[value] != 0) {
+            return;
+        }
+
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+
+        elements[size++] = value;
+        indexes[value] = size;
+    }
+
+    void remove(int value) {
+        if (value >= indexes.length || indexes[value] == 0) {
+            return;
+        }
+
+        int index = indexes[value] - 1;
+        int last = elements[--size];
+
+        elements[index] = last;
+        indexes[last] = index + 1;
+        indexes[value] = 0;
+    }
+
+    boolean contains(int value) {
+        return value < indexes.length && indexes[value] != 0;
+    }
+
+    // Element at index, 0 <= index < size(), in no particular order
+    int get(int index) {
+        return elements[index];
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -1,14 +1,15 @@
 package se.klinghammer.neuralNetworkLibrary;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-
-
 public class Individual {
+    private static final Activation[] ACTIVATIONS = Activation.values();
+    // Random links tried by mutateAddNeuron before it counts the links that can be split
+    private static final int SPLIT_ATTEMPTS = 8;
+
     private final Genome network;
     private double fitness;
     private final int id;
+    // Species of the individual, or of its parent until it has been speciated, 0 for none
+    private transient int speciesId;
 
     private int addedLinks = 0;
     private int addedNeurons = 0;
@@ -27,133 +28,167 @@ public class Individual {
         this.id = id;
     }
 
-    public void mutateAddLink() {
+    // The mutations return false without changing the genome when they can not be applied to it,
+    // mutate then draws another mutation instead
+
+    public boolean mutateAddLink() {
+        MutationEngine engine = MutationEngine.get();
         int inputId = network.getRandomInputOrHiddenId();
         int outputId = network.getRandomHiddenOrOutputId(inputId);
 
         LinkGene link = network.findLink(inputId, outputId);
         if (link != null) {
             if (link.isEnabled()) {
-                mutate(1, true);
-            } else {
-                link.enable();
+                return false;
             }
-            return;
+
+            network.editLink(link).enable();
+            return true;
         }
 
-        if (network.createsCycle(inputId, outputId) || addedLinks > Population.getConfig().getInt("maxEnabledLinksPerMutation")) {
-            mutate(1, true);
-            return;
+        if (network.createsCycle(inputId, outputId) || addedLinks > engine.maxEnabledLinksPerMutation) {
+            return false;
         }
 
         network.addLinkWithXavier(inputId, outputId);
 
         addedLinks++;
+        return true;
     }
 
-    public void mutateDisableLink() {
+    public boolean mutateDisableLink() {
         LinkGene link = network.getRandomLink();
 
-        if (link == null || removedLinks > Population.getConfig().getInt("maxEnabledLinksPerMutation")) {
-            mutate(1, true);
-            return;
+        if (link == null || removedLinks > MutationEngine.get().maxEnabledLinksPerMutation) {
+            return false;
         }
 
-        link.disable();
+        network.editLink(link).disable();
         removedLinks++;
+        return true;
     }
 
     // Complete global innovation number
-    public void mutateAddNeuron() {
-        List<LinkGene> possibleLinksToSplit = new ArrayList<>();
-        List<Integer> possibleNewIds = new ArrayList<>();
+    public boolean mutateAddNeuron() {
+        if (addedNeurons > MutationEngine.get().maxNeuronsPerMutation) {
+            return false;
+        }
 
-        for (LinkGene link : network.getLinks()) {
-            if (!link.isEnabled()) {
-                continue;
-            }
+        LinkGene linkToSplit = null;
 
-            int id = Population.getLinkId(link);
+        // Random enabled links until one has not been split in this genome, which is a uniform pick among those links.
+        // Counting them only pays off when most links have been split already
+        for (int attempt = 0; attempt < SPLIT_ATTEMPTS && linkToSplit == null; attempt++) {
+            LinkGene link = network.getRandomLink();
 
-            if (network.getNeuronFromId(id) == null) {
-                possibleLinksToSplit.add(link);
-                possibleNewIds.add(id);
+            if (link == null) {
+                return false;
             }
-        }
 
-        if (possibleLinksToSplit.isEmpty() || addedNeurons > Population.getConfig().getInt("maxNeuronsPerMutation")) {
-            mutate(1, true);
-            return;
+            if (canSplit(link)) {
+                linkToSplit = link;
+            }
         }
 
-        int index = RandomUtil.random.nextInt(possibleLinksToSplit.size());
-        LinkGene linkToSplit = possibleLinksToSplit.get(index);
+        if (linkToSplit == null) {
+            int splittable = 0;
+
+            for (LinkGene link : network.getLinks()) {
+                if (link.isEnabled() && canSplit(link)) {
+                    splittable++;
+                }
+            }
+
+            if (splittable == 0) {
+                return false;
+            }
 
-        int id = possibleNewIds.get(index);
-        linkToSplit.disable();
+            int chosen = RandomUtil.get().nextInt(splittable);
 
-        // Global innovation number
-        if (id == Integer.MIN_VALUE) {
-            id = Population.getGlobalInnovationId();
-            Population.updateGlobalInnovationId();
-            Population.updateLinkToId(linkToSplit, id);
+            for (LinkGene link : network.getLinks()) {
+                if (link.isEnabled() && canSplit(link) && chosen-- == 0) {
+                    linkToSplit = link;
+                    break;
+                }
+            }
         }
 
-        NeuronGene neuron = new NeuronGene(id);
+        // Global innovation number
+        int id = Population.getOrCreateLinkId(linkToSplit);
+        network.editLink(linkToSplit).disable();
+
+        NeuronGene neuron = GenePool.newNeuron(id);
         network.addNeuron(neuron);
 
         network.addLinkWithXavier(linkToSplit.getInputId(), neuron.getId());
-        network.addLink(new LinkGene(neuron.getId(), linkToSplit.getOutputId(), linkToSplit.getWeight()));
+        network.addLink(GenePool.newLink(neuron.getId(), linkToSplit.getOutputId(), linkToSplit.getWeight(), true));
         addedNeurons++;
+        return true;
     }
 
-    public void mutateChangeWeight() {
+    // The neuron splitting the link is not in the genome yet, links that were never split have no neuron id
+    private boolean canSplit(LinkGene link) {
+        int id = Population.getLinkId(link);
+
+        return id == InnovationRegistry.MISSING || network.getNeuronFromId(id) == null;
+    }
+
+    public boolean mutateChangeWeight() {
+        MutationEngine engine = MutationEngine.get();
         LinkGene link = network.getRandomLink();
+
         if (link == null) {
-            mutate(1, true);
-            return;
+            return false;
         }
 
-        if (RandomUtil.random.nextDouble() < Population.getConfig().getDouble("extremeMutationChance")) {
+        if (RandomUtil.get().nextDouble() < engine.extremeMutationChance) {
             network.reinitializeLinkWithXavier(link);
         } else {
-            double value = RandomUtil.random.nextDouble() * 2 - 1;
-            link.setWeight(link.getWeight() + value * Population.getConfig().getDouble("mutationSpeed"));
+            double value = RandomUtil.get().nextDouble() * 2 - 1;
+            network.editLink(link).setWeight(link.getWeight() + value * engine.mutationSpeed);
         }
+
+        return true;
     }
 
-    public void mutateChangeBias() {
+    public boolean mutateChangeBias() {
+        MutationEngine engine = MutationEngine.get();
+
         if (network.getNeuronsSize() == 0) {
-            mutate(1, true);
-            return;
+            return false;
         }
 
-        NeuronGene neuron = network.getRandomHiddenOrOutput();
+        NeuronGene neuron = network.editNeuron(network.getRandomHiddenOrOutput());
 
-        if (RandomUtil.random.nextDouble() < Population.getConfig().getDouble("extremeMutationChance")) {
+        if (RandomUtil.get().nextDouble() < engine.extremeMutationChance) {
             neuron.initializeBias();
         } else {
-            double value = RandomUtil.random.nextDouble() * 2 - 1;
-            neuron.setBias(neuron.getBias() + value * Population.getConfig().getDouble("mutationSpeed"));
+            double value = RandomUtil.get().nextDouble() * 2 - 1;
+            neuron.setBias(neuron.getBias() + value * engine.mutationSpeed);
         }
+
+        return true;
     }
 
-    public void mutateChangeActivation() {
+    public boolean mutateChangeActivation() {
         NeuronGene neuronGene = network.getRandomHidden();
 
         if (neuronGene == null) {
-            mutate(1, true);
-            return;
+            return false;
         }
 
-        List<Activation> availableActivations = Arrays.stream(Activation.values())
-                .filter(a -> a != neuronGene.getActivation()).toList();
+        // Any activation but the current one
+        int index = RandomUtil.get().nextInt(ACTIVATIONS.length - 1);
 
-        Activation newActivation = availableActivations.get(RandomUtil.random.nextInt(availableActivations.size()));
-        neuronGene.setActivation(newActivation);
-    }
+        if (index >= neuronGene.getActivation().ordinal()) {
+            index++;
+        }
 
+        network.editNeuron(neuronGene).setActivation(ACTIVATIONS[index]);
+        return true;
+    }
 
+    // repeat keeps the limits on added neurons and links of the previous call
     public void mutate(int rolls, boolean repeat) {
         if (!repeat) {
             addedNeurons = 0;
@@ -161,41 +196,27 @@ public class Individual {
             removedLinks = 0;
         }
 
-        Runnable[] mutationFunctions = new Runnable[]{
-                this::mutateChangeWeight,
-                this::mutateChangeBias,
-                this::mutateAddNeuron,
-                this::mutateAddLink,
-                this::mutateChangeActivation
-        };
-
-        double[] mutationProbabilities = new double[]{
-                Population.getConfig().getDouble("weightMutationProb"),
-                Population.getConfig().getDouble("biasMutationProb"),
-                Population.getConfig().getDouble("addNeuronMutationProb"),
-                Population.getConfig().getDouble("addLinkMutationProb"),
-                Population.getConfig().getDouble("activationMutationProb"),
-        };
-
-        double sum = Arrays.stream(mutationProbabilities).sum();
-        double[] normalizedProbabilities = Arrays.stream(mutationProbabilities).map(k
-                -> sum == 0 ? 1.0 / mutationProbabilities.length : k / sum).toArray();
+        MutationEngine engine = MutationEngine.get();
 
         for (int i = 0; i < rolls; i++) {
-            double random = Math.random();
-            double cumulative = 0;
-
-            for (int j = 0; j < mutationFunctions.length; j++) {
-                cumulative += normalizedProbabilities[j];
-
-                if (random < cumulative) {
-                    mutationFunctions[j].run();
+            for (int attempt = 0; attempt < engine.maxMutationAttempts; attempt++) {
+                if (apply(engine.sample(RandomUtil.get()))) {
                     break;
                 }
             }
         }
     }
 
+    private boolean apply(MutationEngine.Operator operator) {
+        return switch (operator) {
+            case ChangeWeight -> mutateChangeWeight();
+            case ChangeBias -> mutateChangeBias();
+            case AddNeuron -> mutateAddNeuron();
+            case AddLink -> mutateAddLink();
+            case ChangeActivation -> mutateChangeActivation();
+        };
+    }
+
 
     public Genome getNetwork() {
         return network;
@@ -212,4 +233,12 @@ public class Individual {
     public int getId() {
         return id;
     }
+
+    public int getSpeciesId() {
+        return speciesId;
+    }
+
+    void setSpeciesId(int speciesId) {
+        this.speciesId = speciesId;
+    }
 }
\ No newline at end of file
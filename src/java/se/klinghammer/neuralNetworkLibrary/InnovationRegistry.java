@@ -0,0 +1,102 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Innovation ids of the neurons that split links, safe to use from many threads at once.
+// Looking up a link that was split before never locks, the first split of a link locks only its bin of the map,
+// so workers splitting the same link get the same id and workers splitting different links do not wait on each other.
+final class InnovationRegistry {
+    static final int MISSING = Integer.MIN_VALUE;
+    // While ids are deferred, new splits get ids from here on, far above any id that is handed out for real
+    static final int FIRST_PROVISIONAL_ID = 1 << 30;
+
+    private final ConcurrentHashMap<Long, Integer> linkToId = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicInteger nextProvisionalId = new AtomicInteger();
+    private volatile boolean deferred;
+
+    // Forgets every split, ids are handed out from firstId again
+    void reset(int firstId) {
+        linkToId.clear();
+        nextId.set(firstId);
+    }
+
+    // Id of the neuron splitting the link, MISSING if it was never split
+    int get(int inputId, int outputId) {
+        Integer id = linkToId.get(LinkGene.convertToLong(inputId, outputId));
+
+        return id == null ? MISSING : id;
+    }
+
+    // Id of the neuron splitting the link, a new id if it was never split
+    int getOrCreate(int inputId, int outputId) {
+        long key = LinkGene.convertToLong(inputId, outputId);
+        Integer id = linkToId.get(key);
+
+        if (id != null) {
+            return id;
+        }
+
+        return linkToId.computeIfAbsent(key, k -> deferred ? nextProvisionalId.getAndIncrement() : nextId.getAndIncrement());
+    }
+
+    void put(int inputId, int outputId, int id) {
+        linkToId.put(LinkGene.convertToLong(inputId, outputId), id);
+    }
+
+    static boolean isProvisional(int id) {
+        return id >= FIRST_PROVISIONAL_ID;
+    }
+
+    // New splits get provisional ids until commit. The order in which concurrent workers split links decides
+    // which provisional id a link gets, so the caller renumbers them in an order that does not depend on it
+    void defer() {
+        nextProvisionalId.set(FIRST_PROVISIONAL_ID);
+        deferred = true;
+    }
+
+    // Replaces every provisional id with finalIds.get(id), which has to be a real id from nextId(), both in the ids
+    // and in the keys of links to or from neurons that were added while the ids were deferred.
+    // Provisional ids without a final id belong to splits no genome kept and are forgotten
+    void commit(IntIntHashMap finalIds) {
+        deferred = false;
+        Map<Long, Integer> renumbered = new HashMap<>();
+        Iterator<Map.Entry<Long, Integer>> entries = linkToId.entrySet().iterator();
+
+        while (entries.hasNext()) {
+            Map.Entry<Long, Integer> entry = entries.next();
+            long key = entry.getKey();
+            int inputId = (int) (key >> 32);
+            int outputId = (int) key;
+            int id = entry.getValue();
+
+            if (!isProvisional(inputId) && !isProvisional(outputId) && !isProvisional(id)) {
+                continue;
+            }
+
+            entries.remove();
+            inputId = isProvisional(inputId) ? finalIds.get(inputId) : inputId;
+            outputId = isProvisional(outputId) ? finalIds.get(outputId) : outputId;
+            id = isProvisional(id) ? finalIds.get(id) : id;
+
+            if (inputId != MISSING && outputId != MISSING && id != MISSING) {
+                renumbered.put(LinkGene.convertToLong(inputId, outputId), id);
+            }
+        }
+
+        linkToId.putAll(renumbered);
+    }
+
+    // The id the next new split gets
+    int peekNextId() {
+        return nextId.get();
+    }
+
+    int nextId() {
+        return nextId.getAndIncrement();
+    }
+}
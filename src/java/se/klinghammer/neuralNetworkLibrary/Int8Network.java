@@ -0,0 +1,113 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+// CompiledNetwork with int8 quantized weights. Every source neuron has its own float scale,
+// so weight = quantized * scale with an error of at most scale / 2 = max|outgoing weight| / 254.
+// Biases and neuron values are kept as float.
+public final class Int8Network implements NetworkEvaluator {
+    private static final ThreadLocal<float[]> valueBuffer = ThreadLocal.withInitial(() -> new float[0]);
+
+    private final int amountOfInputs;
+    private final int amountOfOutputs;
+    private final int neuronCount;
+    private final int outputStart;
+
+    private final float[] bias;
+    private final float[] scale;
+    private final Activation[] activation;
+    private final Activation outputActivation;
+    private final boolean approximateActivations;
+
+    private final int[] linkStart;
+    private final int[] linkTarget;
+    private final byte[] linkWeight;
+
+    public Int8Network(CompiledNetwork network) {
+        amountOfInputs = network.getAmountOfInputs();
+        amountOfOutputs = network.getAmountOfOutputs();
+        neuronCount = network.getNeuronCount();
+        outputStart = network.getOutputStart();
+        outputActivation = network.getOutputActivation();
+        approximateActivations = network.isApproximatingActivations();
+
+        bias = new float[neuronCount];
+        scale = new float[neuronCount];
+        activation = new Activation[neuronCount];
+        linkStart = new int[neuronCount + 1];
+        linkTarget = new int[network.getLinkCount()];
+        linkWeight = new byte[network.getLinkCount()];
+
+        for (int slot = 0; slot < neuronCount; slot++) {
+            bias[slot] = (float) network.getBias(slot);
+            activation[slot] = network.getActivation(slot);
+            linkStart[slot + 1] = network.getLinkStart(slot + 1);
+
+            double maxWeight = 0;
+
+            for (int i = network.getLinkStart(slot); i < network.getLinkStart(slot + 1); i++) {
+                maxWeight = Math.max(maxWeight, Math.abs(network.getLinkWeight(i)));
+            }
+
+            scale[slot] = maxWeight == 0 ? 1 : (float) (maxWeight / 127);
+
+            for (int i = network.getLinkStart(slot); i < network.getLinkStart(slot + 1); i++) {
+                linkTarget[i] = network.getLinkTarget(i);
+                linkWeight[i] = (byte) Math.round(network.getLinkWeight(i) / scale[slot]);
+            }
+        }
+    }
+
+    public Int8Network(Genome genome) {
+        this(genome.compile());
+    }
+
+    @Override
+    public void propagate(double[] inputs, double[] outputs) {
+        float[] values = valueBuffer.get();
+
+        if (values.length < neuronCount) {
+            values = new float[neuronCount];
+            valueBuffer.set(values);
+        }
+
+        for (int i = 0; i < amountOfInputs; i++) {
+            values[i] = (float) inputs[i];
+        }
+
+        System.arraycopy(bias, amountOfInputs, values, amountOfInputs, neuronCount - amountOfInputs);
+
+        for (int source = 0; source < outputStart; source++) {
+            float value = values[source];
+
+            if (source >= amountOfInputs) {
+                value = (float) (approximateActivations ? activation[source].approximate(value) : activation[source].activate(value));
+            }
+
+            // The scale is applied once per source instead of once per link
+            float scaledValue = value * scale[source];
+
+            for (int i = linkStart[source]; i < linkStart[source + 1]; i++) {
+                values[linkTarget[i]] += scaledValue * linkWeight[i];
+            }
+        }
+
+        for (int i = 0; i < amountOfOutputs; i++) {
+            float value = values[outputStart + i];
+            outputs[i] = approximateActivations ? outputActivation.approximate(value) : outputActivation.activate(value);
+        }
+    }
+
+    @Override
+    public int getAmountOfInputs() {
+        return amountOfInputs;
+    }
+
+    @Override
+    public int getAmountOfOutputs() {
+        return amountOfOutputs;
+    }
+
+    // Bytes used by the weights, scales, biases and link targets
+    public long getParameterBytes() {
+        return linkWeight.length + 4L * (bias.length + scale.length + linkTarget.length + linkStart.length);
+    }
+}
@@ -0,0 +1,121 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+// Open addressing map from int to int with linear probing, avoids boxing keys and values and a node object per entry.
+// Entries can not be removed, which is all the genome indexes need.
+final class IntIntHashMap implements Serializable {
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private final int missingValue;
+
+    IntIntHashMap(int missingValue) {
+        this(missingValue, 8);
+    }
+
+    IntIntHashMap(int missingValue, int expectedSize) {
+        this.missingValue = missingValue;
+        allocate(Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1);
+    }
+
+    IntIntHashMap(IntIntHashMap other) {
+        keys = other.keys.clone();
+        values = other.values.clone();
+        size = other.size;
+        missingValue = other.missingValue;
+    }
+
+    int get(int key) {
+        // The reserved key would match the first empty slot
+        if (key == EMPTY) {
+            return missingValue;
+        }
+
+        int mask = keys.length - 1;
+
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            int current = keys[i];
+
+            if (current == key) {
+                return values[i];
+            }
+
+            if (current == EMPTY) {
+                return missingValue;
+            }
+        }
+    }
+
+    void put(int key, int value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("The key " + key + " is reserved");
+        }
+
+        int mask = keys.length - 1;
+
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            int current = keys[i];
+
+            if (current == key) {
+                values[i] = value;
+                return;
+            }
+
+            if (current == EMPTY) {
+                keys[i] = key;
+                values[i] = value;
+
+                // Kept at most half full so probe sequences stay short
+                if (++size * 2 > keys.length) {
+                    rehash(keys.length * 2);
+                }
+
+                return;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+
+        allocate(capacity);
+
+        int mask = capacity - 1;
+
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == EMPTY) {
+                continue;
+            }
+
+            int i = mix(oldKeys[j]) & mask;
+
+            while (keys[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    // Neuron ids are mostly consecutive, the multiplication spreads them over the whole table
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
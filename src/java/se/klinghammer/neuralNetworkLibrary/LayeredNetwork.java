@@ -0,0 +1,315 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.util.Arrays;
+
+// Executes a compiled network level by level, where the level of a neuron is its longest distance from the inputs.
+// All links into a level come from earlier levels, so a level is one matrix-vector product: levels where enough
+// of the possible links exist are stored as dense row major matrices, the rest as sparse rows (CSR).
+public final class LayeredNetwork implements NetworkEvaluator {
+    public static final double DEFAULT_DENSITY_THRESHOLD = 0.3;
+
+    private static final ThreadLocal<double[]> valueBuffer = ThreadLocal.withInitial(() -> new double[0]);
+
+    private final int amountOfInputs;
+    private final int amountOfOutputs;
+    private final int neuronCount;
+    private final int outputStart;
+
+    private final double[] bias;
+    private final Activation[] activation;
+    private final Activation outputActivation;
+    private final boolean approximateActivations;
+
+    private final Level[] levels;
+    private final int maxSources;
+
+    public LayeredNetwork(Genome genome) {
+        this(genome.compile(), DEFAULT_DENSITY_THRESHOLD);
+    }
+
+    public LayeredNetwork(CompiledNetwork network) {
+        this(network, DEFAULT_DENSITY_THRESHOLD);
+    }
+
+    // Levels with at least densityThreshold * sources * targets links are executed as dense matrices
+    public LayeredNetwork(CompiledNetwork network, double densityThreshold) {
+        amountOfInputs = network.getAmountOfInputs();
+        amountOfOutputs = network.getAmountOfOutputs();
+        neuronCount = network.getNeuronCount();
+        outputStart = network.getOutputStart();
+        outputActivation = network.getOutputActivation();
+        approximateActivations = network.isApproximatingActivations();
+
+        bias = new double[neuronCount];
+        activation = new Activation[neuronCount];
+
+        for (int slot = 0; slot < neuronCount; slot++) {
+            bias[slot] = network.getBias(slot);
+            activation[slot] = network.getActivation(slot);
+        }
+
+        // Slots are in topological order, so one pass gives the longest path to every neuron
+        int[] depth = new int[neuronCount];
+        int[] incomingCount = new int[neuronCount];
+        int maxDepth = 0;
+
+        for (int slot = amountOfInputs; slot < neuronCount; slot++) {
+            depth[slot] = 1;
+        }
+
+        for (int source = 0; source < neuronCount; source++) {
+            maxDepth = Math.max(maxDepth, depth[source]);
+
+            for (int i = network.getLinkStart(source); i < network.getLinkStart(source + 1); i++) {
+                int target = network.getLinkTarget(i);
+
+                depth[target] = Math.max(depth[target], depth[source] + 1);
+                incomingCount[target]++;
+            }
+        }
+
+        // Incoming links grouped by target, CSR
+        int[] incomingStart = new int[neuronCount + 1];
+
+        for (int slot = 0; slot < neuronCount; slot++) {
+            incomingStart[slot + 1] = incomingStart[slot] + incomingCount[slot];
+        }
+
+        int[] incomingSource = new int[network.getLinkCount()];
+        double[] incomingWeight = new double[network.getLinkCount()];
+        int[] next = Arrays.copyOf(incomingStart, neuronCount);
+
+        for (int source = 0; source < neuronCount; source++) {
+            for (int i = network.getLinkStart(source); i < network.getLinkStart(source + 1); i++) {
+                int index = next[network.getLinkTarget(i)]++;
+
+                incomingSource[index] = source;
+                incomingWeight[index] = network.getLinkWeight(i);
+            }
+        }
+
+        levels = new Level[maxDepth];
+        int largestSourceCount = 0;
+
+        for (int d = 1; d <= maxDepth; d++) {
+            int targetCount = 0;
+
+            for (int slot = amountOfInputs; slot < neuronCount; slot++) {
+                if (depth[slot] == d) {
+                    targetCount++;
+                }
+            }
+
+            int[] targets = new int[targetCount];
+            int index = 0;
+
+            for (int slot = amountOfInputs; slot < neuronCount; slot++) {
+                if (depth[slot] == d) {
+                    targets[index++] = slot;
+                }
+            }
+
+            levels[d - 1] = new Level(targets, incomingStart, incomingSource, incomingWeight, neuronCount, densityThreshold);
+            largestSourceCount = Math.max(largestSourceCount, levels[d - 1].getSourceCount());
+        }
+
+        maxSources = largestSourceCount;
+    }
+
+    @Override
+    public void propagate(double[] inputs, double[] outputs) {
+        int size = neuronCount + maxSources;
+        double[] buffer = valueBuffer.get();
+
+        if (buffer.length < size) {
+            buffer = new double[size];
+            valueBuffer.set(buffer);
+        }
+
+        System.arraycopy(inputs, 0, buffer, 0, amountOfInputs);
+
+        for (Level level : levels) {
+            level.evaluate(buffer, bias, neuronCount);
+
+            for (int target : level.targets) {
+                if (target < outputStart) {
+                    buffer[target] = approximateActivations ? activation[target].approximate(buffer[target]) : activation[target].activate(buffer[target]);
+                }
+            }
+        }
+
+        for (int i = 0; i < amountOfOutputs; i++) {
+            double value = buffer[outputStart + i];
+            outputs[i] = approximateActivations ? outputActivation.approximate(value) : outputActivation.activate(value);
+        }
+    }
+
+    @Override
+    public int getAmountOfInputs() {
+        return amountOfInputs;
+    }
+
+    @Override
+    public int getAmountOfOutputs() {
+        return amountOfOutputs;
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    public int getDenseLevelCount() {
+        int dense = 0;
+
+        for (Level level : levels) {
+            if (level.matrix != null) {
+                dense++;
+            }
+        }
+
+        return dense;
+    }
+
+    private static final class Level {
+        private final int[] targets;
+
+        // Dense: matrix[row * sources.length + column], the source values are gathered into a contiguous vector first
+        private final int[] sources;
+        private final double[] matrix;
+
+        // Sparse: links of target row r are rowStart[r], ..., rowStart[r + 1] - 1
+        private final int[] rowStart;
+        private final int[] columnSource;
+        private final double[] weight;
+
+        private Level(int[] targets, int[] incomingStart, int[] incomingSource, double[] incomingWeight, int neuronCount, double densityThreshold) {
+            this.targets = targets;
+
+            int linkCount = 0;
+            boolean[] isSource = new boolean[neuronCount];
+
+            for (int target : targets) {
+                for (int i = incomingStart[target]; i < incomingStart[target + 1]; i++) {
+                    isSource[incomingSource[i]] = true;
+                    linkCount++;
+                }
+            }
+
+            int[] columnOf = new int[neuronCount];
+            int sourceCount = 0;
+
+            for (int slot = 0; slot < neuronCount; slot++) {
+                if (isSource[slot]) {
+                    columnOf[slot] = sourceCount++;
+                }
+            }
+
+            double density = sourceCount == 0 ? 0 : (double) linkCount / ((long) sourceCount * targets.length);
+
+            if (density >= densityThreshold) {
+                sources = new int[sourceCount];
+
+                for (int slot = 0; slot < neuronCount; slot++) {
+                    if (isSource[slot]) {
+                        sources[columnOf[slot]] = slot;
+                    }
+                }
+
+                matrix = new double[sourceCount * targets.length];
+
+                for (int row = 0; row < targets.length; row++) {
+                    for (int i = incomingStart[targets[row]]; i < incomingStart[targets[row] + 1]; i++) {
+                        matrix[row * sourceCount + columnOf[incomingSource[i]]] += incomingWeight[i];
+                    }
+                }
+
+                rowStart = null;
+                columnSource = null;
+                weight = null;
+            } else {
+                sources = new int[0];
+                matrix = null;
+                rowStart = new int[targets.length + 1];
+                columnSource = new int[linkCount];
+                weight = new double[linkCount];
+
+                int index = 0;
+
+                for (int row = 0; row < targets.length; row++) {
+                    for (int i = incomingStart[targets[row]]; i < incomingStart[targets[row] + 1]; i++) {
+                        columnSource[index] = incomingSource[i];
+                        weight[index++] = incomingWeight[i];
+                    }
+
+                    rowStart[row + 1] = index;
+                }
+            }
+        }
+
+        private int getSourceCount() {
+            return sources.length;
+        }
+
+        // Writes bias + weighted sum into values[target] for every target of the level, vector is values[vectorOffset, ...]
+        private void evaluate(double[] values, double[] bias, int vectorOffset) {
+            if (matrix == null) {
+                for (int row = 0; row < targets.length; row++) {
+                    double sum = bias[targets[row]];
+
+                    for (int i = rowStart[row]; i < rowStart[row + 1]; i++) {
+                        sum += values[columnSource[i]] * weight[i];
+                    }
+
+                    values[targets[row]] = sum;
+                }
+
+                return;
+            }
+
+            int columns = sources.length;
+
+            for (int column = 0; column < columns; column++) {
+                values[vectorOffset + column] = values[sources[column]];
+            }
+
+            int row = 0;
+
+            // Four rows at a time so every loaded vector element is used four times
+            for (; row + 4 <= targets.length; row += 4) {
+                int offset0 = row * columns;
+                int offset1 = offset0 + columns;
+                int offset2 = offset1 + columns;
+                int offset3 = offset2 + columns;
+                double sum0 = 0;
+                double sum1 = 0;
+                double sum2 = 0;
+                double sum3 = 0;
+
+                for (int column = 0; column < columns; column++) {
+                    double x = values[vectorOffset + column];
+
+                    sum0 += matrix[offset0 + column] * x;
+                    sum1 += matrix[offset1 + column] * x;
+                    sum2 += matrix[offset2 + column] * x;
+                    sum3 += matrix[offset3 + column] * x;
+                }
+
+                values[targets[row]] = bias[targets[row]] + sum0;
+                values[targets[row + 1]] = bias[targets[row + 1]] + sum1;
+                values[targets[row + 2]] = bias[targets[row + 2]] + sum2;
+                values[targets[row + 3]] = bias[targets[row + 3]] + sum3;
+            }
+
+            for (; row < targets.length; row++) {
+                int offset = row * columns;
+                double sum = 0;
+
+                for (int column = 0; column < columns; column++) {
+                    sum += matrix[offset + column] * values[vectorOffset + column];
+                }
+
+                values[targets[row]] = bias[targets[row]] + sum;
+            }
+        }
+    }
+}
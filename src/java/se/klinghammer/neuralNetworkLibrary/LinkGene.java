@@ -3,10 +3,16 @@ package se.klinghammer.neuralNetworkLibrary;
 import java.io.Serializable;
 
 public class LinkGene implements Serializable {
-    private final int inputId;
-    private final int outputId;
+    // Not final so pooled genes can be reused, see GenePool
+    private int inputId;
+    private int outputId;
     private double weight;
     private boolean enabled;
+    // Generation in which compaction first saw the link disabled, 0 until then. Only read by GenomeCompactor,
+    // so it is written without notifying the owner, also when the gene is shared with copies of the genome
+    private int disabledSince;
+    // Owner of the genome the gene belongs to, notified before the gene changes
+    private transient Genome.Owner owner;
 
     public LinkGene(int inputId, int outputId) {
         this.inputId = inputId;
@@ -45,15 +51,70 @@ public class LinkGene implements Serializable {
 
     public void initializeWeight(int inputSize, int outputSize) {
         double k = (inputSize + outputSize == 0) ? 0.1 : Math.sqrt(6.0 / (inputSize + outputSize));
-        this.weight = k * (RandomUtil.random.nextDouble() * 2 - 1);
+        change();
+        this.weight = k * (RandomUtil.get().nextDouble() * 2 - 1);
     }
 
     public void enable() {
-        this.enabled = true;
+        if (!enabled) {
+            change();
+            this.enabled = true;
+            this.disabledSince = 0;
+            enabledChanged();
+        }
     }
 
     public void disable() {
-        this.enabled = false;
+        if (enabled) {
+            change();
+            this.enabled = false;
+            this.disabledSince = 0;
+            enabledChanged();
+        }
+    }
+
+    void reset(int inputId, int outputId, double weight, boolean enabled) {
+        this.inputId = inputId;
+        this.outputId = outputId;
+        this.weight = weight;
+        this.enabled = enabled;
+        this.disabledSince = 0;
+        this.owner = null;
+    }
+
+    // Only for Genome.renumber, which updates the genome itself
+    void setIds(int inputId, int outputId) {
+        this.inputId = inputId;
+        this.outputId = outputId;
+    }
+
+    int getDisabledSince() {
+        return disabledSince;
+    }
+
+    void setDisabledSince(int generation) {
+        this.disabledSince = generation;
+    }
+
+    void setOwner(Genome.Owner owner) {
+        this.owner = owner;
+    }
+
+    boolean isOwnedBy(Genome.Owner owner) {
+        return this.owner == owner;
+    }
+
+    // Throws an IllegalStateException if the gene is shared with a copy of its genome, see Genome.editLink
+    private void change() {
+        if (owner != null) {
+            owner.change();
+        }
+    }
+
+    private void enabledChanged() {
+        if (owner != null) {
+            owner.enabledChanged(this);
+        }
     }
 
     public int getOutputId() {
@@ -69,6 +130,7 @@ public class LinkGene implements Serializable {
     }
 
     public void setWeight(double weight) {
+        change();
         this.weight = weight;
     }
 
@@ -0,0 +1,121 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+// Open addressing map from long to int with linear probing, used with the keys of LinkGene.convertToLong.
+// Entries can not be removed, which is all the genome indexes need.
+final class LongIntHashMap implements Serializable {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private final int missingValue;
+
+    LongIntHashMap(int missingValue) {
+        this(missingValue, 8);
+    }
+
+    LongIntHashMap(int missingValue, int expectedSize) {
+        this.missingValue = missingValue;
+        allocate(Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1);
+    }
+
+    LongIntHashMap(LongIntHashMap other) {
+        keys = other.keys.clone();
+        values = other.values.clone();
+        size = other.size;
+        missingValue = other.missingValue;
+    }
+
+    int get(long key) {
+        // The reserved key would match the first empty slot
+        if (key == EMPTY) {
+            return missingValue;
+        }
+
+        int mask = keys.length - 1;
+
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            long current = keys[i];
+
+            if (current == key) {
+                return values[i];
+            }
+
+            if (current == EMPTY) {
+                return missingValue;
+            }
+        }
+    }
+
+    // Keeps the existing value if the key is already present, returns whether the value was added
+    boolean putIfAbsent(long key, int value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("The key " + key + " is reserved");
+        }
+
+        int mask = keys.length - 1;
+
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            long current = keys[i];
+
+            if (current == key) {
+                return false;
+            }
+
+            if (current == EMPTY) {
+                keys[i] = key;
+                values[i] = value;
+
+                // Kept at most half full so probe sequences stay short
+                if (++size * 2 > keys.length) {
+                    rehash(keys.length * 2);
+                }
+
+                return true;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+
+        allocate(capacity);
+
+        int mask = capacity - 1;
+
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == EMPTY) {
+                continue;
+            }
+
+            int i = mix(oldKeys[j]) & mask;
+
+            while (keys[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    // Input and output ids sit in the two halves of the key, both have to influence the low bits
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,117 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.util.random.RandomGenerator;
+
+// Mutation settings for the current config, built once whenever the config is (re)loaded so that mutating
+// never reads the config. The operator is drawn from an alias table (Vose), which takes one random int
+// and one random double however many operators there are.
+final class MutationEngine {
+    enum Operator {
+        ChangeWeight("weightMutationProb"),
+        ChangeBias("biasMutationProb"),
+        AddNeuron("addNeuronMutationProb"),
+        AddLink("addLinkMutationProb"),
+        ChangeActivation("activationMutationProb");
+
+        private static final Operator[] VALUES = values();
+
+        private final String probabilityKey;
+
+        Operator(String probabilityKey) {
+            this.probabilityKey = probabilityKey;
+        }
+    }
+
+    private static final int DEFAULT_MUTATION_ATTEMPTS = 100;
+
+    private static volatile MutationEngine current;
+
+    // Column i is taken with probability acceptance[i], otherwise alias[i] is
+    private final double[] acceptance;
+    private final int[] alias;
+
+    final double mutationSpeed;
+    final double extremeMutationChance;
+    final int maxEnabledLinksPerMutation;
+    final int maxNeuronsPerMutation;
+    // Draws per roll before giving up when the drawn operators can not be applied to the genome
+    final int maxMutationAttempts;
+
+    private MutationEngine(ConfigLoader config) {
+        int n = Operator.VALUES.length;
+        double[] probabilities = new double[n];
+        double sum = 0;
+
+        for (int i = 0; i < n; i++) {
+            probabilities[i] = config.getDouble(Operator.VALUES[i].probabilityKey);
+            sum += probabilities[i];
+        }
+
+        // Scaled so the average column is 1, all zero means every operator is equally likely
+        for (int i = 0; i < n; i++) {
+            probabilities[i] = sum == 0 ? 1 : probabilities[i] * n / sum;
+        }
+
+        acceptance = new double[n];
+        alias = new int[n];
+
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+
+        for (int i = 0; i < n; i++) {
+            if (probabilities[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+
+            acceptance[less] = probabilities[less];
+            alias[less] = more;
+            probabilities[more] += probabilities[less] - 1;
+
+            if (probabilities[more] < 1) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+
+        // What is left is 1 up to rounding errors
+        while (largeCount > 0) {
+            acceptance[large[--largeCount]] = 1;
+        }
+
+        while (smallCount > 0) {
+            acceptance[small[--smallCount]] = 1;
+        }
+
+        mutationSpeed = config.getDouble("mutationSpeed");
+        extremeMutationChance = config.getDouble("extremeMutationChance");
+        maxEnabledLinksPerMutation = config.getInt("maxEnabledLinksPerMutation");
+        maxNeuronsPerMutation = config.getInt("maxNeuronsPerMutation");
+        // Optional, configs written before the setting existed keep working
+        maxMutationAttempts = config.getSring("maxMutationAttempts") == null
+                ? DEFAULT_MUTATION_ATTEMPTS : Math.max(1, config.getInt("maxMutationAttempts"));
+    }
+
+    static void update(ConfigLoader config) {
+        current = new MutationEngine(config);
+    }
+
+    static MutationEngine get() {
+        return current;
+    }
+
+    Operator sample(RandomGenerator random) {
+        int column = random.nextInt(acceptance.length);
+
+        return Operator.VALUES[random.nextDouble() < acceptance[column] ? column : alias[column]];
+    }
+}
@@ -0,0 +1,363 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// Turns a genome into a generated hidden class with a single straight line propagate method.
+// Every neuron value lives in a local variable, weights and biases are constants and activations are inlined,
+// so there are no loops or array indirections left for the JIT to see through.
+public final class NetworkCompiler {
+    // HotSpot does not JIT compile methods with more bytecode than this (-XX:+DontCompileHugeMethods),
+    // larger networks are better served by the array interpreter
+    private static final int MAX_CODE_LENGTH = 8000;
+
+    private static final String CLASS_NAME = "se/klinghammer/neuralNetworkLibrary/GeneratedNetwork";
+    private static final String INTERFACE_NAME = "se/klinghammer/neuralNetworkLibrary/NetworkEvaluator";
+    private static final String TABLES_NAME = "se/klinghammer/neuralNetworkLibrary/ActivationTables";
+
+    private NetworkCompiler() {
+    }
+
+    // Falls back to the CompiledNetwork interpreter when the generated method would be too large
+    public static NetworkEvaluator compile(Genome genome) {
+        return compile(genome.compile());
+    }
+
+    public static NetworkEvaluator compile(CompiledNetwork network) {
+        byte[] classFile = generate(network);
+
+        if (classFile == null) {
+            return network;
+        }
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            return (NetworkEvaluator) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not define the generated network class", e);
+        }
+    }
+
+    public static boolean isGenerated(NetworkEvaluator evaluator) {
+        return evaluator.getClass().isHidden();
+    }
+
+    private static byte[] generate(CompiledNetwork network) {
+        ConstantPool pool = new ConstantPool();
+        int thisClass = pool.classRef(CLASS_NAME);
+        int superClass = pool.classRef("java/lang/Object");
+        int interfaceClass = pool.classRef(INTERFACE_NAME);
+
+        Code constructor = new Code(pool);
+        constructor.op(0x2A); // aload_0
+        constructor.op(0xB7).u2(pool.methodRef("java/lang/Object", "<init>", "()V")); // invokespecial
+        constructor.op(0xB1); // return
+
+        Code propagate = generatePropagate(network, pool);
+
+        if (propagate.length() > MAX_CODE_LENGTH) {
+            return null;
+        }
+
+        Code amountOfInputs = new Code(pool);
+        amountOfInputs.pushInt(network.getAmountOfInputs());
+        amountOfInputs.op(0xAC); // ireturn
+
+        Code amountOfOutputs = new Code(pool);
+        amountOfOutputs.pushInt(network.getAmountOfOutputs());
+        amountOfOutputs.op(0xAC); // ireturn
+
+        int codeName = pool.utf8("Code");
+
+        try {
+            // Methods are written first since they add their names to the constant pool
+            ByteArrayOutputStream methods = new ByteArrayOutputStream();
+            DataOutputStream methodsOut = new DataOutputStream(methods);
+            writeMethod(methodsOut, pool, codeName, "<init>", "()V", constructor, 1, 1);
+            writeMethod(methodsOut, pool, codeName, "propagate", "([D[D)V", propagate, 10, 3 + 2 * network.getNeuronCount());
+            writeMethod(methodsOut, pool, codeName, "getAmountOfInputs", "()I", amountOfInputs, 1, 1);
+            writeMethod(methodsOut, pool, codeName, "getAmountOfOutputs", "()I", amountOfOutputs, 1, 1);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(61); // Java 17 class file, no stack map frames needed since the code has no branches
+            pool.write(out);
+            out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(interfaceClass);
+            out.writeShort(0); // fields
+            out.writeShort(4);
+            methods.writeTo(out);
+            out.writeShort(0); // attributes
+
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Locals: 0 this, 1 inputs, 2 outputs, neuron slot s is the double at 3 + 2 * s
+    private static Code generatePropagate(CompiledNetwork network, ConstantPool pool) {
+        Code code = new Code(pool);
+        int amountOfInputs = network.getAmountOfInputs();
+        int outputStart = network.getOutputStart();
+        boolean approximate = network.isApproximatingActivations();
+
+        for (int slot = 0; slot < network.getNeuronCount(); slot++) {
+            if (slot < amountOfInputs) {
+                code.op(0x2B); // aload_1
+                code.pushInt(slot);
+                code.op(0x31); // daload
+            } else {
+                code.pushDouble(network.getBias(slot));
+            }
+
+            code.storeDouble(local(slot));
+        }
+
+        for (int source = 0; source < outputStart; source++) {
+            if (source >= amountOfInputs && network.getActivation(source) != Activation.None) {
+                code.loadActivated(network.getActivation(source), local(source), approximate);
+                code.storeDouble(local(source));
+            }
+
+            for (int i = network.getLinkStart(source); i < network.getLinkStart(source + 1); i++) {
+                int target = local(network.getLinkTarget(i));
+
+                code.loadDouble(target);
+                code.loadDouble(local(source));
+                code.pushDouble(network.getLinkWeight(i));
+                code.op(0x6B); // dmul
+                code.op(0x63); // dadd
+                code.storeDouble(target);
+            }
+        }
+
+        for (int i = 0; i < network.getAmountOfOutputs(); i++) {
+            code.op(0x2C); // aload_2
+            code.pushInt(i);
+            code.loadActivated(network.getOutputActivation(), local(outputStart + i), approximate);
+            code.op(0x52); // dastore
+        }
+
+        code.op(0xB1); // return
+
+        return code;
+    }
+
+    private static int local(int slot) {
+        return 3 + 2 * slot;
+    }
+
+    private static void writeMethod(DataOutputStream out, ConstantPool pool, int codeName, String name, String descriptor,
+                                    Code code, int maxStack, int maxLocals) throws IOException {
+        out.writeShort(0x0001); // public
+        out.writeShort(pool.utf8(name));
+        out.writeShort(pool.utf8(descriptor));
+        out.writeShort(1);
+
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length());
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length());
+        code.bytes.writeTo(out);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    private static final class Code {
+        private final ConstantPool pool;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private Code(ConstantPool pool) {
+            this.pool = pool;
+        }
+
+        private Code op(int opcode) {
+            bytes.write(opcode);
+            return this;
+        }
+
+        private Code u2(int value) {
+            bytes.write(value >>> 8);
+            bytes.write(value);
+            return this;
+        }
+
+        private int length() {
+            return bytes.size();
+        }
+
+        private void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(0x03 + value); // iconst_<n>
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(0x10).op(value & 0xFF); // bipush
+            } else {
+                op(0x11).u2(value & 0xFFFF); // sipush
+            }
+        }
+
+        private void pushDouble(double value) {
+            op(0x14).u2(pool.doubleConstant(value)); // ldc2_w
+        }
+
+        private void loadDouble(int local) {
+            localInstruction(0x26, 0x18, local); // dload_<n>, dload
+        }
+
+        private void storeDouble(int local) {
+            localInstruction(0x47, 0x39, local); // dstore_<n>, dstore
+        }
+
+        private void localInstruction(int shortForm, int opcode, int local) {
+            if (local <= 3) {
+                op(shortForm + local);
+            } else if (local <= 0xFF) {
+                op(opcode).op(local);
+            } else {
+                op(0xC4).op(opcode).u2(local); // wide
+            }
+        }
+
+        // Leaves activation(local) on the stack, matching Activation.activate and Activation.approximate exactly
+        private void loadActivated(Activation activation, int local, boolean approximate) {
+            switch (activation) {
+                case None -> loadDouble(local);
+                case Sigmoid -> {
+                    if (approximate) {
+                        loadDouble(local);
+                        invokeStatic(TABLES_NAME, "sigmoid", "(D)D");
+                    } else {
+                        op(0x0F); // dconst_1
+                        op(0x0F); // dconst_1
+                        loadDouble(local);
+                        op(0x77); // dneg
+                        invokeStatic("java/lang/Math", "exp", "(D)D");
+                        op(0x63); // dadd
+                        op(0x6F); // ddiv
+                    }
+                }
+                case Tanh -> {
+                    loadDouble(local);
+
+                    if (approximate) {
+                        invokeStatic(TABLES_NAME, "tanh", "(D)D");
+                    } else {
+                        invokeStatic("java/lang/Math", "tanh", "(D)D");
+                    }
+                }
+                case ReLU -> {
+                    op(0x0E); // dconst_0
+                    loadDouble(local);
+                    invokeStatic("java/lang/Math", "max", "(DD)D");
+                }
+                // Equal to input >= 0 ? input : 0.01 * input, but without a branch
+                case LeakyReLU -> {
+                    loadDouble(local);
+                    loadDouble(local);
+                    pushDouble(0.01);
+                    op(0x6B); // dmul
+                    invokeStatic("java/lang/Math", "max", "(DD)D");
+                }
+            }
+        }
+
+        private void invokeStatic(String owner, String name, String descriptor) {
+            op(0xB8).u2(pool.methodRef(owner, name, descriptor));
+        }
+    }
+
+    private static final class ConstantPool {
+        private final List<byte[]> entries = new ArrayList<>();
+        private final HashMap<String, Integer> indexes = new HashMap<>();
+        // Index of the next entry, long and double constants take up two indexes
+        private int nextIndex = 1;
+
+        private int utf8(String value) {
+            return add("U" + value, out -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            }, 1);
+        }
+
+        private int classRef(String name) {
+            int nameIndex = utf8(name);
+            return add("C" + name, out -> {
+                out.writeByte(7);
+                out.writeShort(nameIndex);
+            }, 1);
+        }
+
+        private int methodRef(String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = add("N" + name + ";" + descriptor, out -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            }, 1);
+
+            return add("M" + owner + "." + name + descriptor, out -> {
+                out.writeByte(10);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            }, 1);
+        }
+
+        private int doubleConstant(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            return add("D" + bits, out -> {
+                out.writeByte(6);
+                out.writeLong(bits);
+            }, 2);
+        }
+
+        private int add(String key, Entry entry, int size) {
+            Integer existing = indexes.get(key);
+
+            if (existing != null) {
+                return existing;
+            }
+
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                entry.write(new DataOutputStream(bytes));
+                entries.add(bytes.toByteArray());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+
+            int index = nextIndex;
+            nextIndex += size;
+            indexes.put(key, index);
+
+            return index;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeShort(nextIndex);
+
+            for (byte[] entry : entries) {
+                out.write(entry);
+            }
+        }
+
+        private interface Entry {
+            void write(DataOutputStream out) throws IOException;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+// Common interface of the inference engines that can be built from a genome
+public interface NetworkEvaluator {
+    void propagate(double[] inputs, double[] outputs);
+
+    int getAmountOfInputs();
+
+    int getAmountOfOutputs();
+}
@@ -3,9 +3,12 @@ package se.klinghammer.neuralNetworkLibrary;
 import java.io.Serializable;
 
 public class NeuronGene implements Serializable {
-    private final int id;
+    // Not final so pooled genes can be reused, see GenePool
+    private int id;
     private double bias;
     private Activation activation;
+    // Owner of the genome the gene belongs to, notified before the gene changes
+    private transient Genome.Owner owner;
 
     public NeuronGene(int id) {
         this.id = id;
@@ -20,7 +23,8 @@ public class NeuronGene implements Serializable {
     }
 
     public void initializeBias() {
-        bias = Population.getConfig().getDouble("neuronBiasStartRange") * (RandomUtil.random.nextDouble() * 2 - 1);
+        change();
+        bias = Population.getConfig().getDouble("neuronBiasStartRange") * (RandomUtil.get().nextDouble() * 2 - 1);
     }
 
     public double getBias() {
@@ -36,6 +40,7 @@ public class NeuronGene implements Serializable {
     }
 
     public void setActivation(Activation activation) {
+        change();
         this.activation = activation;
     }
 
@@ -44,9 +49,37 @@ public class NeuronGene implements Serializable {
     }
 
     public void setBias(double bias) {
+        change();
         this.bias = bias;
     }
 
+    void reset(int id, double bias, Activation activation) {
+        this.id = id;
+        this.bias = bias;
+        this.activation = activation;
+        this.owner = null;
+    }
+
+    // Only for Genome.renumber, which updates the genome itself
+    void setId(int id) {
+        this.id = id;
+    }
+
+    void setOwner(Genome.Owner owner) {
+        this.owner = owner;
+    }
+
+    boolean isOwnedBy(Genome.Owner owner) {
+        return this.owner == owner;
+    }
+
+    // Throws an IllegalStateException if the gene is shared with a copy of its genome, see Genome.editLink
+    private void change() {
+        if (owner != null) {
+            owner.change();
+        }
+    }
+
     // Faster hashing in HashMap
     @Override
     public boolean equals(Object o) {
@@ -0,0 +1,91 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// Column of fixed width values stored outside the heap in direct buffers of CHUNK_SIZE values each.
+// The garbage collector only sees one small buffer object per chunk, however many values the column holds,
+// and a column can grow past the 2 GB a single buffer is limited to. Indexes are longs for the same reason.
+final class OffHeapColumn {
+    private static final int CHUNK_BITS = 18;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // log2 of the value width in bytes
+    private final int shift;
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+
+    OffHeapColumn(int width) {
+        if (Integer.bitCount(width) != 1 || width > 8) {
+            throw new IllegalArgumentException("Unsupported value width " + width);
+        }
+
+        shift = Integer.numberOfTrailingZeros(width);
+    }
+
+    // Makes room for the values 0, ..., capacity - 1, values already written are kept
+    void ensureCapacity(long capacity) {
+        int needed = (int) ((capacity + CHUNK_MASK) >>> CHUNK_BITS);
+
+        if (needed <= chunks.length) {
+            return;
+        }
+
+        int previous = chunks.length;
+        chunks = Arrays.copyOf(chunks, needed);
+
+        for (int chunk = previous; chunk < chunks.length; chunk++) {
+            chunks[chunk] = ByteBuffer.allocateDirect(CHUNK_SIZE << shift).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    // First index at or after start where count values fit without crossing into the next chunk
+    static long alignToChunk(long start, int count) {
+        if (count > CHUNK_SIZE) {
+            throw new IllegalArgumentException(count + " values do not fit in a chunk of " + CHUNK_SIZE);
+        }
+
+        long end = start + count - 1;
+
+        return count == 0 || start >>> CHUNK_BITS == end >>> CHUNK_BITS ? start : (end >>> CHUNK_BITS) << CHUNK_BITS;
+    }
+
+    // Buffer holding the value at index, at byte offset offset(index). Lets a reader of values that are known to be
+    // in one chunk look the chunk up once
+    ByteBuffer chunk(long index) {
+        return chunks[(int) (index >>> CHUNK_BITS)];
+    }
+
+    int offset(long index) {
+        return ((int) index & CHUNK_MASK) << shift;
+    }
+
+    long getAllocatedBytes() {
+        return (long) chunks.length * CHUNK_SIZE << shift;
+    }
+
+    int getInt(long index) {
+        return chunks[(int) (index >>> CHUNK_BITS)].getInt(((int) index & CHUNK_MASK) << shift);
+    }
+
+    void putInt(long index, int value) {
+        chunks[(int) (index >>> CHUNK_BITS)].putInt(((int) index & CHUNK_MASK) << shift, value);
+    }
+
+    double getDouble(long index) {
+        return chunks[(int) (index >>> CHUNK_BITS)].getDouble(((int) index & CHUNK_MASK) << shift);
+    }
+
+    void putDouble(long index, double value) {
+        chunks[(int) (index >>> CHUNK_BITS)].putDouble(((int) index & CHUNK_MASK) << shift, value);
+    }
+
+    byte getByte(long index) {
+        return chunks[(int) (index >>> CHUNK_BITS)].get(((int) index & CHUNK_MASK) << shift);
+    }
+
+    void putByte(long index, byte value) {
+        chunks[(int) (index >>> CHUNK_BITS)].put(((int) index & CHUNK_MASK) << shift, value);
+    }
+}
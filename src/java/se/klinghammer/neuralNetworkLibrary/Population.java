@@ -2,16 +2,16 @@ package se.klinghammer.neuralNetworkLibrary;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import org.apache.commons.lang3.SerializationUtils;
 
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.random.RandomGenerator;
 
 public class Population {
-    private static int globalInnovationId;
-    private static final HashMap<Long, Integer> linkToId = new HashMap<>();
+    private static final InnovationRegistry innovations = new InnovationRegistry();
     private List<Individual> individuals = new ArrayList<>();
 
     private final int populationSize;
@@ -23,10 +23,25 @@ public class Population {
     private final String fileName;
 
     private int currentSpeciesAmount = 0;
-    private float largestDelta;
+    // Lower bound of the largest delta between an individual and a representative in the last speciation, see
+    // getLargestDeltaLowerBound
+    private float largestDeltaLowerBound;
 
     private float highestDeltaBelowThreshold;
 
+    // Bytes the last reproduction allocated on all threads, -1 if the JVM can not measure it
+    private transient long reproduceAllocatedBytes = -1;
+    // Genes and gene list segments the last reproduction took from the gene pools instead of allocating them,
+    // and the ones of the previous generation it gave back to them
+    private transient long reusedGenes;
+    private transient long releasedGenes;
+    // What compaction removed from the last generation
+    private transient CompactionStats compactionStats = new CompactionStats();
+    // What the last speciation did, and with approximateSpeciation how often it disagreed with the exact scan
+    private transient SpeciationStats speciationStats;
+    // Species carried over from one generation to the next
+    private transient Speciation speciation;
+
     private double highestFitness = 0;
     private double averageFitness = 0;
 
@@ -39,7 +54,8 @@ public class Population {
     public Population(int size, int amountOfInputs, int amountOfOutputs, String fileName, boolean initializeWithCompletelyConnected) {
         this.fileName = fileName;
         populationSize = size;
-        globalInnovationId = amountOfInputs + amountOfOutputs;
+        // Ids handed out to an earlier population would be given out again for other links
+        innovations.reset(amountOfInputs + amountOfOutputs);
 
         for (int i = 0; i < size; i++) {
             Individual individual = new Individual(Genome.createCompletelyConnectedGenome(amountOfInputs, amountOfOutputs), i);
@@ -53,7 +69,8 @@ public class Population {
     public Population(int size, int amountOfInputs, int amountOfOutputs, String fileName) {
         this.fileName = fileName;
         populationSize = size;
-        globalInnovationId = amountOfInputs + amountOfOutputs;
+        // Ids handed out to an earlier population would be given out again for other links
+        innovations.reset(amountOfInputs + amountOfOutputs);
 
         for (int i = 0; i < size; i++) {
             Individual individual = new Individual(amountOfInputs, amountOfOutputs, i);
@@ -65,6 +82,11 @@ public class Population {
     public static void setConfigPath(String configPath) {
         Population.configPath = configPath;
         config = new ConfigLoader(configPath + ".properties");
+        ActivationResolver.update(config);
+        GenePool.update(config);
+        MutationEngine.update(config);
+        GenomeCompactor.update(config);
+        ReproductionPool.update(config);
     }
 
     public void run(int untilGeneration) {
@@ -94,58 +116,47 @@ public class Population {
             exportToJson(fileName);
             return;
         }
+
+        long allocatedBefore = getAllocatedBytes();
+        long poolAllocatedBefore = ReproductionPool.getAllocatedBytes();
+        long reusedBefore = GenePool.getReusedCount() + ReproductionPool.getReusedGenes();
+        long releasedBefore = GenePool.getReleasedCount() + ReproductionPool.getReleasedGenes();
+        List<Individual> previousGeneration = individuals;
         individuals = reproduce();
-        run(untilGeneration);
-    }
+        compactionStats = new CompactionStats();
 
-    private double calculateDelta(Individual representative, Individual individual) {
-        if (representative == individual) {
-            return 0;
+        if (GenomeCompactor.get().isEnabled()) {
+            for (Individual individual : individuals) {
+                GenomeCompactor.get().compact(individual.getNetwork(), generations, compactionStats);
+            }
         }
 
-        Genome currentNetwork = individual.getNetwork();
-        Genome representativeNetwork = representative.getNetwork();
-
-        int N = Math.max(currentNetwork.getNeuronsSize(), representativeNetwork.getNeuronsSize());
-        int excess = representativeNetwork.getAmountOfExcessNeurons(currentNetwork);
-        int disjoint = representativeNetwork.getAmountOfDisjointNeurons(currentNetwork);
-        double averageWeightDifference = representativeNetwork.getAverageWeightDifference(currentNetwork);
+        // Offspring never refer to the previous generation's genomes, only to genes and segments they share.
+        // Released on the reproduction threads, into the pools the next offspring are built from
+        if (GenePool.isEnabled()) {
+            ReproductionPool.forEach(previousGeneration.size(), i -> GenePool.get().release(previousGeneration.get(i).getNetwork()));
+        }
 
-        return (config.getDouble("excessNeuronsConstant") * excess + config.getDouble("disjointNeuronsConstant") * disjoint) / N
-                + config.getDouble("averageDeltaWeightConstant") * averageWeightDifference;
+        reproduceAllocatedBytes = allocatedBefore < 0 ? -1
+                : getAllocatedBytes() - allocatedBefore + ReproductionPool.getAllocatedBytes() - poolAllocatedBefore;
+        reusedGenes = GenePool.getReusedCount() + ReproductionPool.getReusedGenes() - reusedBefore;
+        releasedGenes = GenePool.getReleasedCount() + ReproductionPool.getReleasedGenes() - releasedBefore;
+        run(untilGeneration);
     }
 
     private List<List<Individual>> createSpecies() {
-        largestDelta = 0;
-        highestDeltaBelowThreshold = 0;
-
-        List<List<Individual>> species = new ArrayList<>();
+        individuals.sort(Comparator.comparingDouble(Individual::getFitness).reversed());
 
-        individuals.sort(Comparator.comparing(Individual::getFitness).reversed());
-
-        // λ = c1 * E / N + c2 * D / N + c3 * (W_)
-        for (Individual individual : individuals) {
-            boolean assignedToSpecies = false;
-
-            for (List<Individual> currentSpecies : species) {
-                double delta = calculateDelta(currentSpecies.getFirst(), individual);
+        // A loaded population starts with new species
+        if (speciation == null) {
+            speciation = new Speciation();
+        }
 
-                largestDelta = Math.max(largestDelta, (float) Math.floor(delta * 100) / 100);
+        List<List<Individual>> species = speciation.createSpecies(individuals, config);
 
-                if (delta < config.getDouble("deltaThreshold")) {
-                    highestDeltaBelowThreshold = Math.max(highestDeltaBelowThreshold, (float) Math.floor(delta * 100) / 100);
-                    currentSpecies.add(individual);
-                    assignedToSpecies = true;
-                    break;
-                }
-            }
-
-            if (!assignedToSpecies) {
-                List<Individual> newSpecies = new ArrayList<>();
-                newSpecies.add(individual);
-                species.add(newSpecies);
-            }
-        }
+        largestDeltaLowerBound = (float) Math.floor(speciation.getLargestDeltaLowerBound() * 100) / 100;
+        highestDeltaBelowThreshold = (float) Math.floor(speciation.getHighestDeltaBelowThreshold() * 100) / 100;
+        speciationStats = speciation.getStats();
 
         return species;
     }
@@ -200,7 +211,7 @@ public class Population {
             int lowerBound = (int) fractionalOffspring[i];
             double fractionalPart = fractionalOffspring[i] - lowerBound;
 
-            if (RandomUtil.random.nextDouble() < fractionalPart) {
+            if (RandomUtil.get().nextDouble() < fractionalPart) {
                 currentOffspring[i] = lowerBound + 1;
             } else {
                 currentOffspring[i] = lowerBound;
@@ -309,6 +320,11 @@ public class Population {
     }
 
     public List<Individual> reproduce() {
+        return buildOffspring(planOffspring());
+    }
+
+    // Which parents every offspring comes from, decided on the calling thread
+    private List<Offspring> planOffspring() {
         List<List<Individual>> species = createSpecies();
         int[] amountOfOffspring = calculateSpeciesOffspring(species);
 
@@ -317,32 +333,29 @@ public class Population {
         //System.out.println(currentSpeciesAmount);
 
         //Keep best x% of each species
-        List<Individual> newGeneration = new ArrayList<>();
+        List<Offspring> newGeneration = new ArrayList<>();
 
         int currentIndividualId = 0;
 
         for (int index = 0; index < amountOfOffspring.length; index++) {
             List<Individual> currentSpecies = species.get(index);
-            currentSpecies.sort(Comparator.comparing(Individual::getFitness).reversed());
+            currentSpecies.sort(Comparator.comparingDouble(Individual::getFitness).reversed());
 
             int crossoverCutoff = (int) (currentSpecies.size() * (1 - calculateCrossoverThreshold(currentSpecies)));
 
             int mutationCutoff = (int) (crossoverCutoff * config.getDouble("keepingPart"));
+            int speciesId = currentSpecies.getFirst().getSpeciesId();
 
             //System.out.println("crossover " + crossoverCutoff);
 
             //System.out.println(currentSpecies.getFirst().getFitness());
             for (int i = 0; i < crossoverCutoff; i++) {
-                Individual offspring;
                 if (i < mutationCutoff) {
-                    Genome copiedGenome = SerializationUtils.clone(currentSpecies.get(i).getNetwork());
-                    offspring = new Individual(copiedGenome, currentIndividualId++);
+                    newGeneration.add(new Offspring(currentSpecies.get(i).getNetwork().copy(), false, speciesId));
                 } else {
-                    Genome copiedGenome = SerializationUtils.clone(currentSpecies.get(i - mutationCutoff).getNetwork());
-                    offspring = new Individual(copiedGenome, currentIndividualId++);
-                    offspring.mutate(config.getInt("amountOfMutationRolls"), false);
+                    newGeneration.add(new Offspring(currentSpecies.get(i - mutationCutoff).getNetwork().copy(), true, speciesId));
                 }
-                newGeneration.add(offspring);
+                currentIndividualId++;
 
                 if (currentIndividualId == populationSize) {
                     return newGeneration;
@@ -350,8 +363,8 @@ public class Population {
             }
 
             if (amountOfOffspring[index] - crossoverCutoff == 1) {
-                Genome copiedGenome = SerializationUtils.clone(currentSpecies.getFirst().getNetwork());
-                newGeneration.add(new Individual(copiedGenome, currentIndividualId++));
+                newGeneration.add(new Offspring(currentSpecies.getFirst().getNetwork().copy(), false, speciesId));
+                currentIndividualId++;
 
                 if (currentIndividualId == populationSize) {
                     return newGeneration;
@@ -360,20 +373,13 @@ public class Population {
             }
 
             for (int i = crossoverCutoff; i < amountOfOffspring[index]; i++) {
-                Individual offspring;
                 int index2;
                 do {
-                    index2 = RandomUtil.random.nextInt(amountOfOffspring[index] - crossoverCutoff);
+                    index2 = RandomUtil.get().nextInt(amountOfOffspring[index] - crossoverCutoff);
                 } while (i == index2);
 
-                Individual parent1 = currentSpecies.get(i - crossoverCutoff);
-                Individual parent2 = currentSpecies.get(index2);
-
-                offspring = new Individual(crossover(parent1, parent2), currentIndividualId++);
-                offspring.mutate(config.getInt("amountOfMutationRolls"), false);
-
-
-                newGeneration.add(offspring);
+                newGeneration.add(new Offspring(currentSpecies.get(i - crossoverCutoff), currentSpecies.get(index2), speciesId));
+                currentIndividualId++;
 
                 if (currentIndividualId == populationSize) {
                     return newGeneration;
@@ -386,6 +392,101 @@ public class Population {
         return newGeneration;
     }
 
+    // Builds the planned offspring on the ReproductionPool. Every offspring draws from its own stream, split off the
+    // calling thread's stream in offspring order, and innovation ids are numbered in offspring order afterwards, so the
+    // new generation is the same whatever the number of threads. Parents are only read, the copies were made while planning
+    private List<Individual> buildOffspring(List<Offspring> plan) {
+        int rolls = config.getInt("amountOfMutationRolls");
+        Individual[] offspring = new Individual[plan.size()];
+        RandomGenerator.SplittableGenerator[] streams = new RandomGenerator.SplittableGenerator[plan.size()];
+
+        for (int i = 0; i < streams.length; i++) {
+            streams[i] = RandomUtil.split();
+        }
+
+        for (Offspring planned : plan) {
+            if (planned.parent1 != null) {
+                planned.parent1.getNetwork().prepareForConcurrentReads();
+                planned.parent2.getNetwork().prepareForConcurrentReads();
+            }
+        }
+
+        innovations.defer();
+
+        try {
+            ReproductionPool.forEach(offspring.length, i -> RandomUtil.runWith(streams[i], () -> {
+                Offspring planned = plan.get(i);
+                Genome genome = planned.copy != null ? planned.copy : crossover(planned.parent1, planned.parent2);
+                Individual individual = new Individual(genome, i);
+                individual.setSpeciesId(planned.speciesId);
+
+                if (planned.mutate) {
+                    individual.mutate(rolls, false);
+                }
+
+                offspring[i] = individual;
+            }));
+        } finally {
+            commitInnovations(offspring);
+        }
+
+        return new ArrayList<>(Arrays.asList(offspring));
+    }
+
+    // Gives the links split while building the offspring real ids, in the order one thread building the offspring
+    // one after another would have split them: by offspring, and within an offspring in the order of its neurons
+    private static void commitInnovations(Individual[] offspring) {
+        IntIntHashMap finalIds = new IntIntHashMap(InnovationRegistry.MISSING);
+
+        for (Individual individual : offspring) {
+            if (individual == null) {
+                continue;
+            }
+
+            for (NeuronGene neuron : individual.getNetwork().getHiddenNeurons()) {
+                if (InnovationRegistry.isProvisional(neuron.getId()) && finalIds.get(neuron.getId()) == InnovationRegistry.MISSING) {
+                    finalIds.put(neuron.getId(), innovations.nextId());
+                }
+            }
+        }
+
+        innovations.commit(finalIds);
+
+        if (finalIds.size() > 0) {
+            ReproductionPool.forEach(offspring.length, i -> {
+                if (offspring[i] != null) {
+                    offspring[i].getNetwork().renumber(finalIds);
+                }
+            });
+        }
+    }
+
+    // Either a copy of a parent, made while planning, or the two parents of a crossover, which is always mutated.
+    // The offspring is compared with the species of its parents first when the next generation is speciated
+    private static final class Offspring {
+        private final Genome copy;
+        private final Individual parent1;
+        private final Individual parent2;
+        private final boolean mutate;
+        private final int speciesId;
+
+        private Offspring(Genome copy, boolean mutate, int speciesId) {
+            this.copy = copy;
+            this.parent1 = null;
+            this.parent2 = null;
+            this.mutate = mutate;
+            this.speciesId = speciesId;
+        }
+
+        private Offspring(Individual parent1, Individual parent2, int speciesId) {
+            this.copy = null;
+            this.parent1 = parent1;
+            this.parent2 = parent2;
+            this.mutate = true;
+            this.speciesId = speciesId;
+        }
+    }
+
     public void exportToJson(String filePath) {
         if (fitnessComputer != null) {
             fitnessComputer.stop();
@@ -432,7 +533,7 @@ public class Population {
             } else if (complexity2 < complexity1) {
                 dominant = parent2;
                 recessive = parent1;
-            } else if (RandomUtil.random.nextBoolean()) {
+            } else if (RandomUtil.get().nextBoolean()) {
                 dominant = parent1;
                 recessive = parent2;
             } else {
@@ -460,7 +561,7 @@ public class Population {
             NeuronGene recessiveNeuron = recessiveNetwork.getNeuronFromId(dominantNeuron.getId());
 
             if (recessiveNeuron == null) {
-                offspring.addNeuron(dominantNeuron);
+                offspring.addNeuron(GenePool.newNeuron(dominantNeuron.getId(), dominantNeuron.getBias(), dominantNeuron.getActivation()));
             } else {
                 offspring.addNeuron(crossoverNeuron(dominantNeuron, recessiveNeuron));
             }
@@ -471,7 +572,7 @@ public class Population {
             LinkGene recessiveLink = recessiveNetwork.findLink(dominantLink.getInputId(), dominantLink.getOutputId());
 
             if (recessiveLink == null) {
-                offspring.addLink(dominantLink);
+                offspring.addLink(GenePool.newLink(dominantLink.getInputId(), dominantLink.getOutputId(), dominantLink.getWeight(), dominantLink.isEnabled()));
             } else {
                 offspring.addLink(crossoverLink(dominantLink, recessiveLink));
             }
@@ -481,17 +582,17 @@ public class Population {
     }
 
     private NeuronGene crossoverNeuron(NeuronGene neuron1, NeuronGene neuron2) {
-        double bias = (RandomUtil.random.nextDouble() > 0.5 ? neuron1.getBias() : neuron2.getBias()) + (RandomUtil.random.nextDouble() - 2) * config.getDouble("crossoverMutationSpeed");
-        Activation activation = RandomUtil.random.nextDouble() > 0.5 ? neuron1.getActivation() : neuron2.getActivation();
+        double bias = (RandomUtil.get().nextDouble() > 0.5 ? neuron1.getBias() : neuron2.getBias()) + (RandomUtil.get().nextDouble() - 2) * config.getDouble("crossoverMutationSpeed");
+        Activation activation = RandomUtil.get().nextDouble() > 0.5 ? neuron1.getActivation() : neuron2.getActivation();
 
-        return new NeuronGene(neuron1.getId(), bias, activation);
+        return GenePool.newNeuron(neuron1.getId(), bias, activation);
     }
 
     private LinkGene crossoverLink(LinkGene link1, LinkGene link2) {
-        double weight = (RandomUtil.random.nextDouble() > 0.5 ? link1.getWeight() : link2.getWeight()) + (RandomUtil.random.nextDouble() - 2) * config.getDouble("crossoverMutationSpeed");
+        double weight = (RandomUtil.get().nextDouble() > 0.5 ? link1.getWeight() : link2.getWeight()) + (RandomUtil.get().nextDouble() - 2) * config.getDouble("crossoverMutationSpeed");
         boolean enabled = link1.isEnabled() && link2.isEnabled();
 
-        return new LinkGene(link1.getInputId(), link1.getOutputId(), weight, enabled);
+        return GenePool.newLink(link1.getInputId(), link1.getOutputId(), weight, enabled);
     }
 
     public Individual[] getSamples(int amount) {
@@ -508,7 +609,7 @@ public class Population {
 
     public Individual[] getBestSamplesSorted(int amount) {
         List<Individual> sortedList = new ArrayList<>(individuals);
-        sortedList.sort(Comparator.comparing(Individual::getFitness).reversed());
+        sortedList.sort(Comparator.comparingDouble(Individual::getFitness).reversed());
 
         Individual[] samples = new Individual[amount];
 
@@ -520,19 +621,24 @@ public class Population {
     }
 
     public static int getGlobalInnovationId() {
-        return globalInnovationId;
+        return innovations.peekNextId();
     }
 
     public static void updateGlobalInnovationId() {
-        globalInnovationId++;
+        innovations.nextId();
     }
 
     public static int getLinkId(LinkGene link) {
-        return linkToId.getOrDefault(link.convertToLong(), Integer.MIN_VALUE);
+        return innovations.get(link.getInputId(), link.getOutputId());
     }
 
     public static void updateLinkToId(LinkGene link, int id) {
-        linkToId.put(link.convertToLong(), id);
+        innovations.put(link.getInputId(), link.getOutputId(), id);
+    }
+
+    // Id of the neuron splitting the link, the same for every thread splitting it first, a new id if it was never split
+    public static int getOrCreateLinkId(LinkGene link) {
+        return innovations.getOrCreate(link.getInputId(), link.getOutputId());
     }
 
     public int getPopulationSize() {
@@ -551,14 +657,56 @@ public class Population {
         return currentSpeciesAmount;
     }
 
+    // Largest delta the last speciation computed. Not the largest delta of the population: individuals are mostly only
+    // compared with the species of their parent, and a comparison stops once the delta can not get below deltaThreshold,
+    // counting with the part of the delta computed until then. A value just above deltaThreshold therefore only says
+    // that some individual was further away than that
+    public float getLargestDeltaLowerBound() {
+        return largestDeltaLowerBound;
+    }
+
+    // Kept for code written against earlier versions. Since speciation stops comparisons early and mostly compares with
+    // the parent's species, this is only a lower bound of the largest delta, see getLargestDeltaLowerBound
+    @Deprecated
     public float getLargestDelta() {
-        return largestDelta;
+        return getLargestDeltaLowerBound();
     }
 
     public float getHighestDeltaBelowThreshold() {
         return highestDeltaBelowThreshold;
     }
 
+    public long getReproduceAllocatedBytes() {
+        return reproduceAllocatedBytes;
+    }
+
+    // 0 without genePooling
+    public long getReusedGenes() {
+        return reusedGenes;
+    }
+
+    public long getReleasedGenes() {
+        return releasedGenes;
+    }
+
+    public SpeciationStats getSpeciationStats() {
+        return speciationStats;
+    }
+
+    public CompactionStats getCompactionStats() {
+        return compactionStats;
+    }
+
+    // Bytes allocated by the calling thread so far, -1 if the JVM can not measure it
+    private static long getAllocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported()) {
+            return threads.getCurrentThreadAllocatedBytes();
+        }
+
+        return -1;
+    }
+
     public static ConfigLoader getConfig() {
         return config;
     }
@@ -0,0 +1,57 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+// Output error of a reduced precision network against the double precision network it was built from
+public final class PrecisionDrift {
+    private final double maxAbsoluteError;
+    private final double meanAbsoluteError;
+    private final int samples;
+
+    private PrecisionDrift(double maxAbsoluteError, double meanAbsoluteError, int samples) {
+        this.maxAbsoluteError = maxAbsoluteError;
+        this.meanAbsoluteError = meanAbsoluteError;
+        this.samples = samples;
+    }
+
+    public static PrecisionDrift measure(Genome genome, NetworkEvaluator reduced, double[][] calibrationInputs) {
+        return measure(genome.compile(), reduced, calibrationInputs);
+    }
+
+    public static PrecisionDrift measure(NetworkEvaluator reference, NetworkEvaluator reduced, double[][] calibrationInputs) {
+        double[] expected = new double[reference.getAmountOfOutputs()];
+        double[] actual = new double[reduced.getAmountOfOutputs()];
+        double maxError = 0;
+        double errorSum = 0;
+
+        for (double[] inputs : calibrationInputs) {
+            reference.propagate(inputs, expected);
+            reduced.propagate(inputs, actual);
+
+            for (int i = 0; i < expected.length; i++) {
+                double error = Math.abs(expected[i] - actual[i]);
+
+                maxError = Math.max(maxError, error);
+                errorSum += error;
+            }
+        }
+
+        int values = calibrationInputs.length * expected.length;
+        return new PrecisionDrift(maxError, values == 0 ? 0 : errorSum / values, calibrationInputs.length);
+    }
+
+    public double getMaxAbsoluteError() {
+        return maxAbsoluteError;
+    }
+
+    public double getMeanAbsoluteError() {
+        return meanAbsoluteError;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    @Override
+    public String toString() {
+        return "max error " + maxAbsoluteError + ", mean error " + meanAbsoluteError + " over " + samples + " samples";
+    }
+}
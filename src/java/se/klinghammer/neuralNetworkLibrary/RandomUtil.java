@@ -1,7 +1,156 @@
 package se.klinghammer.neuralNetworkLibrary;
 
 import java.util.Random;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
 
+// Random numbers for the whole library. Every thread draws from its own stream, split off a root generator
+// (L64X128MixRandom by default), so threads never contend for a generator. After setSeed the same program draws
+// the same numbers again: the seeding thread gets the first stream of the reseeded root, and work that is spread over
+// several threads, like building the offspring of a generation, draws from streams split off the calling thread's
+// stream in a fixed order and bound to the task with runWith, whichever thread runs it. Other threads split their
+// stream off the root the first time they draw, so they only replay if they start drawing in the same order.
 public class RandomUtil {
-    public static final Random random = new Random();
+    private static final String DEFAULT_ALGORITHM = "L64X128MixRandom";
+
+    // Same numbers as get(), setSeed on it seeds the library. Kept for code written against java.util.Random
+    @Deprecated
+    public static final Random random = new RandomFacade();
+
+    private static final ThreadLocal<Stream> streams = ThreadLocal.withInitial(Stream::new);
+
+    private static RandomGeneratorFactory<RandomGenerator.SplittableGenerator> factory = RandomGeneratorFactory.of(DEFAULT_ALGORITHM);
+    private static RandomGenerator.SplittableGenerator root = factory.create();
+    // Incremented by every reseed, threads split a new stream off the root when theirs is older
+    private static volatile long epoch = 1;
+
+    private RandomUtil() {
+    }
+
+    // The generator of the calling thread: the stream bound with runWith, otherwise the thread's own stream.
+    // Not to be shared with other threads
+    public static RandomGenerator get() {
+        return current();
+    }
+
+    // New stream split off the calling thread's stream, statistically independent of it and of every other stream
+    public static RandomGenerator.SplittableGenerator split() {
+        return current().split();
+    }
+
+    private static RandomGenerator.SplittableGenerator current() {
+        Stream stream = streams.get();
+
+        if (stream.bound != null) {
+            return stream.bound;
+        }
+
+        if (stream.epoch != epoch) {
+            splitRoot(stream);
+        }
+
+        return stream.own;
+    }
+
+    private static synchronized void splitRoot(Stream stream) {
+        stream.own = root.split();
+        stream.epoch = epoch;
+    }
+
+    // Reseeds the root, after which the library draws the same numbers as after any earlier call with the same seed
+    public static synchronized void setSeed(long seed) {
+        root = factory.create(seed);
+        epoch++;
+        splitRoot(streams.get());
+    }
+
+    // Switches to another splittable algorithm, such as "L128X256MixRandom", seeded with seed
+    public static synchronized void setAlgorithm(String algorithm, long seed) {
+        factory = RandomGeneratorFactory.of(algorithm);
+
+        if (!factory.isSplittable()) {
+            throw new IllegalArgumentException(algorithm + " is not a splittable generator");
+        }
+
+        setSeed(seed);
+    }
+
+    // Runs task with get() returning stream on the calling thread. Calls can not be nested
+    static void runWith(RandomGenerator.SplittableGenerator stream, Runnable task) {
+        Stream current = streams.get();
+
+        if (current.bound != null) {
+            throw new IllegalStateException("The thread already draws from a bound stream");
+        }
+
+        current.bound = stream;
+
+        try {
+            task.run();
+        } finally {
+            current.bound = null;
+        }
+    }
+
+    private static final class Stream {
+        private RandomGenerator.SplittableGenerator bound;
+        private RandomGenerator.SplittableGenerator own;
+        private long epoch;
+    }
+
+    private static final class RandomFacade extends Random {
+        // Random calls setSeed from its constructor
+        private final boolean constructed;
+
+        private RandomFacade() {
+            constructed = true;
+        }
+
+        @Override
+        public synchronized void setSeed(long seed) {
+            if (constructed) {
+                RandomUtil.setSeed(seed);
+            }
+        }
+
+        @Override
+        protected int next(int bits) {
+            return get().nextInt() >>> (32 - bits);
+        }
+
+        @Override
+        public int nextInt() {
+            return get().nextInt();
+        }
+
+        @Override
+        public int nextInt(int bound) {
+            return get().nextInt(bound);
+        }
+
+        @Override
+        public long nextLong() {
+            return get().nextLong();
+        }
+
+        @Override
+        public boolean nextBoolean() {
+            return get().nextBoolean();
+        }
+
+        @Override
+        public float nextFloat() {
+            return get().nextFloat();
+        }
+
+        @Override
+        public double nextDouble() {
+            return get().nextDouble();
+        }
+
+        @Override
+        public double nextGaussian() {
+            return get().nextGaussian();
+        }
+    }
 }
@@ -0,0 +1,117 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+// Fork-join pool the offspring of a generation are built on, sized by reproductionThreads in the config
+// (optional, all cores when missing or 0). The pool is only replaced when the configured size changes.
+final class ReproductionPool {
+    // Indexes a task handles itself instead of splitting further
+    private static final int GRAIN = 16;
+
+    private static ForkJoinPool pool;
+    // Bytes allocated by the calls of forEach so far, summed over the threads that made them
+    private static final LongAdder allocatedBytes = new LongAdder();
+    // Genes and segments the gene pools handed out again, and took back, during the calls of forEach so far
+    private static final LongAdder reusedGenes = new LongAdder();
+    private static final LongAdder releasedGenes = new LongAdder();
+
+    private ReproductionPool() {
+    }
+
+    static synchronized void update(ConfigLoader config) {
+        int threads = config.getSring("reproductionThreads") == null ? 0 : config.getInt("reproductionThreads");
+
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+
+        if (pool == null || pool.getParallelism() != threads) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+
+            pool = new ForkJoinPool(threads);
+        }
+    }
+
+    static synchronized ForkJoinPool get() {
+        if (pool == null) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+
+        return pool;
+    }
+
+    // Calls action for every index from 0 to count - 1 on the pool and waits for all of them
+    static void forEach(int count, IntConsumer action) {
+        if (count > 0) {
+            get().invoke(new Range(0, count, action));
+        }
+    }
+
+    // Bytes the calls of forEach allocated so far, -1 if the JVM can not measure it
+    static long getAllocatedBytes() {
+        return threadAllocatedBytes() < 0 ? -1 : allocatedBytes.sum();
+    }
+
+    static long getReusedGenes() {
+        return reusedGenes.sum();
+    }
+
+    static long getReleasedGenes() {
+        return releasedGenes.sum();
+    }
+
+    private static long threadAllocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported()) {
+            return threads.getCurrentThreadAllocatedBytes();
+        }
+
+        return -1;
+    }
+
+    private static final class Range extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final IntConsumer action;
+
+        private Range(int from, int to, IntConsumer action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= GRAIN) {
+                long allocatedBefore = threadAllocatedBytes();
+                boolean pooling = GenePool.isEnabled();
+                long reusedBefore = pooling ? GenePool.getReusedCount() : 0;
+                long releasedBefore = pooling ? GenePool.getReleasedCount() : 0;
+
+                for (int i = from; i < to; i++) {
+                    action.accept(i);
+                }
+
+                if (allocatedBefore >= 0) {
+                    allocatedBytes.add(threadAllocatedBytes() - allocatedBefore);
+                }
+
+                if (pooling) {
+                    reusedGenes.add(GenePool.getReusedCount() - reusedBefore);
+                    releasedGenes.add(GenePool.getReleasedCount() - releasedBefore);
+                }
+
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new Range(from, middle, action), new Range(middle, to, action));
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+class ScalarBatchKernel implements BatchKernel {
+    @Override
+    public void multiplyAdd(double[] values, int source, int target, int length, double weight) {
+        for (int k = 0; k < length; k++) {
+            values[target + k] += values[source + k] * weight;
+        }
+    }
+
+    @Override
+    public void activate(Activation activation, double[] values, int from, int to, boolean approximate) {
+        if (approximate) {
+            activation.approximate(values, from, to);
+        } else {
+            activation.activate(values, from, to);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+}
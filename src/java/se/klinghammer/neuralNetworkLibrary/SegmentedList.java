@@ -0,0 +1,122 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+// Append only list stored in fixed size segments that copies of the list share.
+// A segment is copied the first time either list writes to it, so a copy costs one pointer per segment
+// and a list that only changes a few elements only duplicates the segments those elements live in.
+final class SegmentedList<T> extends AbstractList<T> implements RandomAccess, Serializable {
+    private static final int SEGMENT_BITS = 5;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private Object[][] segments;
+    // shared[s] is set when segment s may be referenced by another list
+    private boolean[] shared;
+    private int size;
+
+    SegmentedList() {
+        segments = new Object[4][];
+        shared = new boolean[4];
+    }
+
+    private SegmentedList(SegmentedList<T> other) {
+        segments = other.segments.clone();
+        shared = new boolean[segments.length];
+        size = other.size;
+
+        Arrays.fill(shared, true);
+        Arrays.fill(other.shared, true);
+    }
+
+    // Copy that shares every segment with this list
+    SegmentedList<T> share() {
+        return new SegmentedList<>(this);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+
+        return (T) segments[index >>> SEGMENT_BITS][index & SEGMENT_MASK];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T set(int index, T element) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+
+        Object[] segment = writableSegment(index >>> SEGMENT_BITS);
+        T previous = (T) segment[index & SEGMENT_MASK];
+        segment[index & SEGMENT_MASK] = element;
+
+        return previous;
+    }
+
+    @Override
+    public boolean add(T element) {
+        int segment = size >>> SEGMENT_BITS;
+
+        if (segment == segments.length) {
+            segments = Arrays.copyOf(segments, segments.length * 2);
+            shared = Arrays.copyOf(shared, shared.length * 2);
+        }
+
+        if (segments[segment] == null) {
+            segments[segment] = GenePool.newSegment(SEGMENT_SIZE);
+        }
+
+        writableSegment(segment)[size & SEGMENT_MASK] = element;
+        size++;
+        modCount++;
+
+        return true;
+    }
+
+    @Override
+    public void add(int index, T element) {
+        if (index != size) {
+            throw new UnsupportedOperationException("Elements can only be appended");
+        }
+
+        add(element);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private Object[] writableSegment(int segment) {
+        if (shared[segment]) {
+            Object[] copy = GenePool.newSegment(SEGMENT_SIZE);
+            System.arraycopy(segments[segment], 0, copy, 0, SEGMENT_SIZE);
+            segments[segment] = copy;
+            shared[segment] = false;
+        }
+
+        return segments[segment];
+    }
+
+    // Hands the segments no other list refers to over to the pool and empties the list
+    void releaseTo(GenePool pool) {
+        for (int segment = 0; segment < segments.length && segments[segment] != null; segment++) {
+            if (!shared[segment]) {
+                pool.add(segments[segment]);
+            }
+        }
+
+        segments = new Object[4][];
+        shared = new boolean[4];
+        size = 0;
+        modCount++;
+    }
+}
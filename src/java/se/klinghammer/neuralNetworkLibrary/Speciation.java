@@ -0,0 +1,414 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Groups the individuals of a generation into species, which live on from one generation to the next. Every individual
+// joins the species of its parent if the representative of it is within deltaThreshold of it, otherwise the first
+// species whose representative is, or starts a new species. A species keeps the individual that started it as its
+// representative for as long as it lives, so the offspring of its members stay close to it.
+// λ = c1 * E / N + c2 * D / N + c3 * (W_), see CompatibilitySignature.delta
+//
+// With approximateSpeciation an individual is first compared with the representatives that share a bucket of a band
+// with it, see GenomeSketch, and joins the first of them within the threshold. Only an individual that matches none
+// of them is compared with the other representatives, so it starts a new species exactly when the exact scan would,
+// but may join another matching species than the first one.
+// lshBands, lshRows and lshWeightQuantum tune the sketches: more bands find more of the matching species, more rows
+// fewer of the others. speciationAuditRate is the part of the individuals that is checked against the exact scan.
+// Every setting is optional.
+final class Speciation {
+    // Individuals per batch, see createSpecies
+    private static final int BATCH = 256;
+
+    private double excessConstant;
+    private double disjointConstant;
+    private double weightConstant;
+    private double threshold;
+
+    private boolean approximate;
+    private int bands;
+    private int rows;
+    private double weightQuantum;
+    // Every auditInterval-th individual is audited, 0 audits none
+    private int auditInterval;
+
+    // Species that survived the last generation, in the order they were created
+    private final List<Species> species = new ArrayList<>();
+    private int nextSpeciesId = 1;
+
+    // Largest delta of any comparison, comparisons that stop early count with the part of the delta computed until then
+    private double largestDelta;
+    private double highestDeltaBelowThreshold;
+    private SpeciationStats stats;
+
+    // Buckets of the representatives: bucketIds maps a band key to a bucket, which lists its species in ascending order
+    private LongIntHashMap bucketIds;
+    private int[][] bucketSpecies;
+    private int[] bucketSizes;
+    private int bucketCount;
+
+    // Read on every speciation, the config is reloaded every generation
+    private void configure(ConfigLoader config) {
+        excessConstant = config.getDouble("excessNeuronsConstant");
+        disjointConstant = config.getDouble("disjointNeuronsConstant");
+        weightConstant = config.getDouble("averageDeltaWeightConstant");
+        threshold = config.getDouble("deltaThreshold");
+
+        approximate = config.getBoolean("approximateSpeciation");
+        bands = config.getSring("lshBands") == null ? 16 : Math.max(1, config.getInt("lshBands"));
+        rows = config.getSring("lshRows") == null ? 2 : Math.max(1, config.getInt("lshRows"));
+        // A weight difference of this size puts a genome beyond the threshold on its own
+        weightQuantum = config.getSring("lshWeightQuantum") != null ? config.getDouble("lshWeightQuantum")
+                : weightConstant > 0 && threshold > 0 ? threshold / weightConstant : 1;
+
+        double auditRate = config.getSring("speciationAuditRate") == null ? 0.01 : config.getDouble("speciationAuditRate");
+        auditInterval = approximate && auditRate > 0 ? Math.max(1, (int) Math.round(1 / Math.min(1, auditRate))) : 0;
+
+        largestDelta = 0;
+        highestDeltaBelowThreshold = 0;
+    }
+
+    // Species of the individuals, which are assigned in the order of the list. The species of the last generation come
+    // first, in the same order, the ones no individual joined die out. Every individual is compared with the species of
+    // its parent first and joins it if it is within the threshold, which is almost always, otherwise it joins the first
+    // matching species.
+    // In batches: every individual of a batch is compared with the species that existed before the batch in parallel,
+    // the ones that matched none of them with the species created within the batch one after another.
+    // That makes the same comparisons, and creates the same species, as assigning one individual after another
+    List<List<Individual>> createSpecies(List<Individual> individuals, ConfigLoader config) {
+        configure(config);
+
+        int count = individuals.size();
+        CompatibilitySignature[] signatures = new CompatibilitySignature[count];
+        long[][] sketches = approximate ? new long[count][] : null;
+
+        ReproductionPool.forEach(count, i -> {
+            signatures[i] = new CompatibilitySignature(individuals.get(i).getNetwork());
+
+            if (approximate) {
+                sketches[i] = GenomeSketch.bandKeys(individuals.get(i).getNetwork(), bands, rows, weightQuantum);
+            }
+        });
+
+        List<List<Individual>> members = new ArrayList<>();
+        List<CompatibilitySignature> representatives = new ArrayList<>();
+        IntIntHashMap positions = new IntIntHashMap(-1, species.size());
+
+        if (approximate) {
+            bucketIds = new LongIntHashMap(-1);
+            bucketSpecies = new int[16][];
+            bucketSizes = new int[16];
+            bucketCount = 0;
+        }
+
+        for (Species carried : species) {
+            positions.put(carried.id, members.size());
+            members.add(new ArrayList<>());
+            representatives.add(carried.representative);
+
+            if (approximate && carried.sketch != null) {
+                addToBuckets(carried.sketch, members.size() - 1);
+            }
+        }
+
+        // Position of the species of every individual's parent, -1 if it has none or it died out
+        int[] parentSpecies = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            int speciesId = individuals.get(i).getSpeciesId();
+            parentSpecies[i] = speciesId == 0 ? -1 : positions.get(speciesId);
+        }
+
+        // Species of every individual, -1 for the ones that started one, and how many species existed when it was assigned
+        int[] assigned = new int[count];
+        int[] speciesBefore = new int[count];
+        // Per individual, so the parallel comparisons do not share counters
+        double[] largest = new double[count];
+        double[] highestBelowThreshold = new double[count];
+        int[] comparisons = new int[count];
+        // Individuals that started the species created in this generation
+        int[] founders = new int[count];
+        int foundersCount = 0;
+
+        for (int batchStart = 0; batchStart < count; batchStart += BATCH) {
+            int start = batchStart;
+            int end = Math.min(count, start + BATCH);
+            int existingSpecies = members.size();
+
+            ReproductionPool.forEach(end - start, k -> {
+                int i = start + k;
+                int parent = parentSpecies[i];
+
+                if (parent >= 0 && compare(signatures, i, representatives, parent, largest, highestBelowThreshold, comparisons)) {
+                    assigned[i] = parent;
+                } else {
+                    assigned[i] = findSpecies(signatures, sketches, i, representatives, 0, existingSpecies, parent,
+                            largest, highestBelowThreshold, comparisons);
+                }
+            });
+
+            for (int i = start; i < end; i++) {
+                if (assigned[i] < 0) {
+                    assigned[i] = findSpecies(signatures, sketches, i, representatives, existingSpecies, members.size(), -1,
+                            largest, highestBelowThreshold, comparisons);
+                }
+
+                speciesBefore[i] = members.size();
+
+                if (assigned[i] < 0) {
+                    List<Individual> newSpecies = new ArrayList<>();
+                    newSpecies.add(individuals.get(i));
+                    members.add(newSpecies);
+                    representatives.add(signatures[i]);
+                    founders[foundersCount++] = i;
+
+                    if (approximate) {
+                        addToBuckets(sketches[i], members.size() - 1);
+                    }
+                } else {
+                    members.get(assigned[i]).add(individuals.get(i));
+                }
+            }
+        }
+
+        List<Species> survivors = new ArrayList<>();
+        List<List<Individual>> result = new ArrayList<>();
+
+        for (int position = 0; position < members.size(); position++) {
+            if (members.get(position).isEmpty()) {
+                continue;
+            }
+
+            Species current;
+
+            if (position < species.size()) {
+                current = species.get(position);
+            } else {
+                int founder = founders[position - species.size()];
+                current = new Species(nextSpeciesId++, signatures[founder], approximate ? sketches[founder] : null);
+            }
+
+            for (Individual member : members.get(position)) {
+                member.setSpeciesId(current.id);
+            }
+
+            survivors.add(current);
+            result.add(members.get(position));
+        }
+
+        species.clear();
+        species.addAll(survivors);
+
+        long totalComparisons = 0;
+        int parentMatches = 0;
+
+        for (int i = 0; i < count; i++) {
+            largestDelta = Math.max(largestDelta, largest[i]);
+            highestDeltaBelowThreshold = Math.max(highestDeltaBelowThreshold, highestBelowThreshold[i]);
+            totalComparisons += comparisons[i];
+
+            if (parentSpecies[i] >= 0 && assigned[i] == parentSpecies[i]) {
+                parentMatches++;
+            }
+        }
+
+        int audited = auditInterval == 0 ? 0 : (count + auditInterval - 1) / auditInterval;
+        int mismatches = audit(signatures, representatives, parentSpecies, assigned, speciesBefore, audited);
+
+        stats = new SpeciationStats(approximate, result.size(), totalComparisons, parentMatches, audited, mismatches);
+
+        return result;
+    }
+
+    // First species from index from to index to - 1 but skipped whose representative is within the threshold of
+    // individual i, -1 if none. Approximately the species that share a bucket with it are compared first
+    private int findSpecies(CompatibilitySignature[] signatures, long[][] sketches, int i, List<CompatibilitySignature> representatives,
+                            int from, int to, int skipped, double[] largest, double[] highestBelowThreshold, int[] comparisons) {
+        if (!approximate) {
+            for (int s = from; s < to; s++) {
+                if (s != skipped && compare(signatures, i, representatives, s, largest, highestBelowThreshold, comparisons)) {
+                    return s;
+                }
+            }
+
+            return -1;
+        }
+
+        // The buckets list their species in ascending order, merging them gives the candidates in ascending order
+        long[] sketch = sketches[i];
+        int[] buckets = new int[sketch.length];
+        int[] positions = new int[sketch.length];
+
+        for (int band = 0; band < sketch.length; band++) {
+            buckets[band] = bucketIds.get(sketch[band]);
+            positions[band] = buckets[band] < 0 ? 0 : lowerBound(bucketSpecies[buckets[band]], bucketSizes[buckets[band]], from);
+        }
+
+        for (int s = nextCandidate(buckets, positions, to); s < to; s = nextCandidate(buckets, positions, to)) {
+            if (s != skipped && compare(signatures, i, representatives, s, largest, highestBelowThreshold, comparisons)) {
+                return s;
+            }
+        }
+
+        // Before it starts a new species it is compared with the rest, so only the exact scan creates species
+        for (int band = 0; band < sketch.length; band++) {
+            positions[band] = buckets[band] < 0 ? 0 : lowerBound(bucketSpecies[buckets[band]], bucketSizes[buckets[band]], from);
+        }
+
+        int candidate = nextCandidate(buckets, positions, to);
+
+        for (int s = from; s < to; s++) {
+            if (s == candidate) {
+                candidate = nextCandidate(buckets, positions, to);
+            } else if (s != skipped && compare(signatures, i, representatives, s, largest, highestBelowThreshold, comparisons)) {
+                return s;
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean compare(CompatibilitySignature[] signatures, int i, List<CompatibilitySignature> representatives, int s,
+                            double[] largest, double[] highestBelowThreshold, int[] comparisons) {
+        double delta = representatives.get(s).delta(signatures[i], excessConstant, disjointConstant, weightConstant, threshold);
+
+        comparisons[i]++;
+        largest[i] = Math.max(largest[i], delta);
+
+        if (delta < threshold) {
+            highestBelowThreshold[i] = Math.max(highestBelowThreshold[i], delta);
+            return true;
+        }
+
+        return false;
+    }
+
+    // Smallest species below to at the positions of the buckets, which move past it, to if there is none
+    private int nextCandidate(int[] buckets, int[] positions, int to) {
+        int smallest = to;
+
+        for (int band = 0; band < buckets.length; band++) {
+            if (buckets[band] >= 0 && positions[band] < bucketSizes[buckets[band]]) {
+                smallest = Math.min(smallest, bucketSpecies[buckets[band]][positions[band]]);
+            }
+        }
+
+        if (smallest < to) {
+            for (int band = 0; band < buckets.length; band++) {
+                if (buckets[band] >= 0 && positions[band] < bucketSizes[buckets[band]]
+                        && bucketSpecies[buckets[band]][positions[band]] == smallest) {
+                    positions[band]++;
+                }
+            }
+        }
+
+        return smallest;
+    }
+
+    // Index of the first species of the list that is at least species
+    private static int lowerBound(int[] list, int size, int species) {
+        int low = 0;
+        int high = size;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (list[middle] < species) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private void addToBuckets(long[] sketch, int s) {
+        for (long key : sketch) {
+            if (bucketIds.putIfAbsent(key, bucketCount)) {
+                if (bucketCount == bucketSpecies.length) {
+                    bucketSpecies = Arrays.copyOf(bucketSpecies, bucketCount * 2);
+                    bucketSizes = Arrays.copyOf(bucketSizes, bucketCount * 2);
+                }
+
+                bucketSpecies[bucketCount++] = new int[2];
+            }
+
+            int bucket = bucketIds.get(key);
+
+            // Bands of one sketch can share a key only by a hash collision
+            if (bucketSizes[bucket] > 0 && bucketSpecies[bucket][bucketSizes[bucket] - 1] == s) {
+                continue;
+            }
+
+            if (bucketSizes[bucket] == bucketSpecies[bucket].length) {
+                bucketSpecies[bucket] = Arrays.copyOf(bucketSpecies[bucket], bucketSizes[bucket] * 2);
+            }
+
+            bucketSpecies[bucket][bucketSizes[bucket]++] = s;
+        }
+    }
+
+    // Compares every auditInterval-th individual with its parent's species and then with all representatives that
+    // existed when it was assigned, returns how many the exact scan would have assigned differently
+    private int audit(CompatibilitySignature[] signatures, List<CompatibilitySignature> representatives, int[] parentSpecies,
+                      int[] assigned, int[] speciesBefore, int audited) {
+        int[] mismatched = new int[audited];
+
+        ReproductionPool.forEach(audited, k -> {
+            int i = k * auditInterval;
+            int exact = -1;
+
+            if (parentSpecies[i] >= 0 && isCompatible(representatives.get(parentSpecies[i]), signatures[i])) {
+                exact = parentSpecies[i];
+            }
+
+            for (int s = 0; s < speciesBefore[i] && exact < 0; s++) {
+                if (isCompatible(representatives.get(s), signatures[i])) {
+                    exact = s;
+                }
+            }
+
+            mismatched[k] = exact == assigned[i] ? 0 : 1;
+        });
+
+        int mismatches = 0;
+
+        for (int value : mismatched) {
+            mismatches += value;
+        }
+
+        return mismatches;
+    }
+
+    private boolean isCompatible(CompatibilitySignature representative, CompatibilitySignature signature) {
+        return representative.delta(signature, excessConstant, disjointConstant, weightConstant, threshold) < threshold;
+    }
+
+    double getLargestDeltaLowerBound() {
+        return largestDelta;
+    }
+
+    double getHighestDeltaBelowThreshold() {
+        return highestDeltaBelowThreshold;
+    }
+
+    SpeciationStats getStats() {
+        return stats;
+    }
+
+    // A species that lives on as long as individuals join it, represented by the individual that started it
+    private static final class Species {
+        private final int id;
+        private final CompatibilitySignature representative;
+        // Null if the species was created by exact speciation
+        private final long[] sketch;
+
+        private Species(int id, CompatibilitySignature representative, long[] sketch) {
+            this.id = id;
+            this.representative = representative;
+            this.sketch = sketch;
+        }
+    }
+}
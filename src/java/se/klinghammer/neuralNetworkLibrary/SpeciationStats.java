@@ -0,0 +1,59 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+// What the speciation of one generation did. With approximateSpeciation a sample of the individuals is audited:
+// each is also compared with every representative that existed when it was assigned, and a mismatch is an individual
+// the exact scan would have put into another species
+public final class SpeciationStats {
+    private final boolean approximate;
+    private final int species;
+    private final long comparisons;
+    private final int parentMatches;
+    private final int audited;
+    private final int mismatches;
+
+    SpeciationStats(boolean approximate, int species, long comparisons, int parentMatches, int audited, int mismatches) {
+        this.approximate = approximate;
+        this.species = species;
+        this.comparisons = comparisons;
+        this.parentMatches = parentMatches;
+        this.audited = audited;
+        this.mismatches = mismatches;
+    }
+
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    public int getSpecies() {
+        return species;
+    }
+
+    // Deltas computed to assign the individuals, the audit not included
+    public long getComparisons() {
+        return comparisons;
+    }
+
+    // Individuals that joined the species of their parent, which took a single comparison
+    public int getParentMatches() {
+        return parentMatches;
+    }
+
+    public int getAudited() {
+        return audited;
+    }
+
+    public int getMismatches() {
+        return mismatches;
+    }
+
+    // Part of the audited individuals the exact scan would have assigned differently, 0 without an audit
+    public double getMismatchRate() {
+        return audited == 0 ? 0 : (double) mismatches / audited;
+    }
+
+    @Override
+    public String toString() {
+        return (approximate ? "approximate" : "exact") + " speciation, species " + species + ", comparisons " + comparisons
+                + ", parent matches " + parentMatches + ", audited " + audited + ", mismatches " + mismatches;
+    }
+}
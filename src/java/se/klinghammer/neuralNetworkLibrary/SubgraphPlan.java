@@ -0,0 +1,260 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Evaluation plan for a chosen subset of the outputs, only containing the neurons those outputs depend on.
+// Weights, biases and enabled flags are read from the genes on every call, so only structural changes
+// (added neurons or links) make the plan rebuild itself. Genes are referred to by their position in the genome,
+// since editing a gene shared with a copy of the genome replaces it.
+public final class SubgraphPlan {
+    private static final ThreadLocal<double[]> valueBuffer = ThreadLocal.withInitial(() -> new double[0]);
+
+    private final Genome genome;
+    private final int[] outputIndices;
+
+    private volatile Layout layout;
+
+    SubgraphPlan(Genome genome, int[] outputIndices) {
+        for (int outputIndex : outputIndices) {
+            if (outputIndex < 0 || outputIndex >= genome.getAmountOfOutputs()) {
+                throw new IllegalArgumentException("There is no output with index " + outputIndex);
+            }
+        }
+
+        this.genome = genome;
+        this.outputIndices = outputIndices.clone();
+    }
+
+    // outputs[j] receives the value of output outputIndices[j]
+    public void propagate(double[] inputs, double[] outputs) {
+        Layout current = getLayout();
+        double[] values = getValueBuffer(current.neurons.length);
+
+        evaluate(current, inputs, values);
+
+        ActivationResolver resolver = ActivationResolver.get();
+
+        for (int j = 0; j < outputIndices.length; j++) {
+            outputs[j] = resolver.activateOutput(values[current.outputSlots[j]]);
+        }
+    }
+
+    // Value of the first output of the plan
+    public double propagate(double[] inputs) {
+        Layout current = getLayout();
+        double[] values = getValueBuffer(current.neurons.length);
+
+        evaluate(current, inputs, values);
+
+        return ActivationResolver.get().activateOutput(values[current.outputSlots[0]]);
+    }
+
+    public int[] getOutputIndices() {
+        return outputIndices.clone();
+    }
+
+    public int getNeuronCount() {
+        return getLayout().neurons.length;
+    }
+
+    private void evaluate(Layout current, double[] inputs, double[] values) {
+        ActivationResolver resolver = ActivationResolver.get();
+        int[] neurons = current.neurons;
+
+        for (int slot = 0; slot < current.inputCount; slot++) {
+            values[slot] = inputs[genome.getNeuron(neurons[slot]).getId()];
+        }
+
+        for (int slot = current.inputCount; slot < neurons.length; slot++) {
+            NeuronGene neuron = genome.getNeuron(neurons[slot]);
+            double value = neuron.getBias();
+
+            for (int i = current.incomingStart[slot]; i < current.incomingStart[slot + 1]; i++) {
+                LinkGene link = genome.getLink(current.incomingLinks[i]);
+
+                if (link.isEnabled()) {
+                    value += values[current.incomingSources[i]] * link.getWeight();
+                }
+            }
+
+            values[slot] = slot < current.outputStart ? resolver.activateHidden(neuron, value) : value;
+        }
+    }
+
+    private Layout getLayout() {
+        Layout current = layout;
+
+        if (current == null || current.structureVersion != genome.getStructureVersion()) {
+            current = new Layout(genome, outputIndices);
+            layout = current;
+        }
+
+        return current;
+    }
+
+    private static double[] getValueBuffer(int size) {
+        double[] values = valueBuffer.get();
+
+        if (values.length < size) {
+            values = new double[size];
+            valueBuffer.set(values);
+        }
+
+        return values;
+    }
+
+    private static final class Layout {
+        private final long structureVersion;
+
+        // Slots: used inputs, hidden neurons in topological order, then the selected outputs.
+        // neurons[slot] is the position of the neuron in the genome
+        private final int[] neurons;
+        private final int inputCount;
+        private final int outputStart;
+        private final int[] outputSlots;
+
+        // Incoming links of slot s are incomingStart[s], ..., incomingStart[s + 1] - 1, incomingLinks holds link positions
+        private final int[] incomingStart;
+        private final int[] incomingSources;
+        private final int[] incomingLinks;
+
+        private Layout(Genome genome, int[] outputIndices) {
+            structureVersion = genome.getStructureVersion();
+            int amountOfInputs = genome.getAmountOfInputs();
+            int neuronCount = genome.getNeuronsSize();
+            List<LinkGene> genomeLinks = genome.getLinks();
+            int linkCount = genomeLinks.size();
+
+            // Links grouped by the position of their target neuron, in genome order: the incoming links of the neuron
+            // at position p are byTarget[targetStart[p]], ..., byTarget[targetStart[p + 1] - 1].
+            // Disabled links are kept so enabling them later does not require a rebuild
+            int[] sourceOf = new int[linkCount];
+            int[] targetOf = new int[linkCount];
+            int[] targetStart = new int[neuronCount + 1];
+
+            for (int position = 0; position < linkCount; position++) {
+                LinkGene link = genomeLinks.get(position);
+                sourceOf[position] = genome.getNeuronPosition(link.getInputId());
+                targetOf[position] = genome.getNeuronPosition(link.getOutputId());
+                targetStart[targetOf[position] + 1]++;
+            }
+
+            for (int position = 0; position < neuronCount; position++) {
+                targetStart[position + 1] += targetStart[position];
+            }
+
+            int[] byTarget = new int[linkCount];
+            int[] filled = Arrays.copyOf(targetStart, neuronCount);
+
+            for (int position = 0; position < linkCount; position++) {
+                byTarget[filled[targetOf[position]]++] = position;
+            }
+
+            int[] outputPositions = new int[outputIndices.length];
+
+            for (int j = 0; j < outputIndices.length; j++) {
+                outputPositions[j] = genome.getNeuronPosition(amountOfInputs + outputIndices[j]);
+            }
+
+            // Depth first post order from the outputs gives every neuron after all of its sources.
+            // stack holds the neurons of the current path, next the incoming link each of them continues with
+            GraphTraversal traversal = GraphTraversal.get(neuronCount);
+            traversal.beginSearch();
+            int[] stack = traversal.stack;
+            int[] next = traversal.positions;
+            int[] order = new int[neuronCount];
+            int orderCount = 0;
+
+            for (int output : outputPositions) {
+                if (!traversal.visit(output)) {
+                    continue;
+                }
+
+                int size = 0;
+                stack[size] = output;
+                next[size++] = targetStart[output];
+
+                while (size > 0) {
+                    int current = stack[size - 1];
+
+                    if (next[size - 1] < targetStart[current + 1]) {
+                        int source = sourceOf[byTarget[next[size - 1]++]];
+
+                        if (traversal.visit(source)) {
+                            stack[size] = source;
+                            next[size++] = targetStart[source];
+                        }
+                    } else {
+                        size--;
+                        order[orderCount++] = current;
+                    }
+                }
+            }
+
+            int inputs = 0;
+            int hidden = 0;
+
+            for (int i = 0; i < orderCount; i++) {
+                int id = genome.getNeuron(order[i]).getId();
+
+                if (id < amountOfInputs) {
+                    inputs++;
+                } else if (id >= amountOfInputs + genome.getAmountOfOutputs()) {
+                    hidden++;
+                }
+            }
+
+            inputCount = inputs;
+            outputStart = inputs + hidden;
+            neurons = new int[orderCount];
+
+            // Inputs, hidden neurons and outputs each keep their post order
+            int[] slotOf = new int[neuronCount];
+            int inputSlot = 0;
+            int hiddenSlot = inputCount;
+            int outputSlot = outputStart;
+
+            for (int i = 0; i < orderCount; i++) {
+                int id = genome.getNeuron(order[i]).getId();
+                int slot;
+
+                if (id < amountOfInputs) {
+                    slot = inputSlot++;
+                } else if (id < amountOfInputs + genome.getAmountOfOutputs()) {
+                    slot = outputSlot++;
+                } else {
+                    slot = hiddenSlot++;
+                }
+
+                neurons[slot] = order[i];
+                slotOf[order[i]] = slot;
+            }
+
+            outputSlots = new int[outputIndices.length];
+
+            for (int j = 0; j < outputIndices.length; j++) {
+                outputSlots[j] = slotOf[outputPositions[j]];
+            }
+
+            incomingStart = new int[neurons.length + 1];
+
+            for (int slot = 0; slot < neurons.length; slot++) {
+                int incoming = slot < inputCount ? 0 : targetStart[neurons[slot] + 1] - targetStart[neurons[slot]];
+                incomingStart[slot + 1] = incomingStart[slot] + incoming;
+            }
+
+            incomingLinks = new int[incomingStart[neurons.length]];
+            incomingSources = new int[incomingLinks.length];
+
+            for (int slot = inputCount; slot < neurons.length; slot++) {
+                int i = incomingStart[slot];
+
+                for (int k = targetStart[neurons[slot]]; k < targetStart[neurons[slot] + 1]; k++) {
+                    incomingLinks[i] = byTarget[k];
+                    incomingSources[i++] = slotOf[sourceOf[byTarget[k]]];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package se.klinghammer.neuralNetworkLibrary;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Only loaded by BatchKernel when the jdk.incubator.vector module is present
+class VectorBatchKernel implements BatchKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final DoubleVector ONE = DoubleVector.broadcast(SPECIES, 1.0);
+
+    @Override
+    public void multiplyAdd(double[] values, int source, int target, int length, double weight) {
+        int k = 0;
+        int upperBound = SPECIES.loopBound(length);
+
+        // Multiply and add separately so the result matches the scalar kernel exactly
+        for (; k < upperBound; k += SPECIES.length()) {
+            DoubleVector sourceVector = DoubleVector.fromArray(SPECIES, values, source + k);
+            DoubleVector targetVector = DoubleVector.fromArray(SPECIES, values, target + k);
+            sourceVector.mul(weight).add(targetVector).intoArray(values, target + k);
+        }
+
+        for (; k < length; k++) {
+            values[target + k] += values[source + k] * weight;
+        }
+    }
+
+    // With fastActivation the lookup tables are used like in the scalar kernel, so batched and single sample
+    // outputs stay the same whether the vector module is present or not
+    @Override
+    public void activate(Activation activation, double[] values, int from, int to, boolean approximate) {
+        if (activation == Activation.None) {
+            return;
+        }
+
+        if (approximate) {
+            activation.approximate(values, from, to);
+            return;
+        }
+
+        int i = from;
+        int upperBound = from + SPECIES.loopBound(to - from);
+
+        for (; i < upperBound; i += SPECIES.length()) {
+            DoubleVector vector = DoubleVector.fromArray(SPECIES, values, i);
+            activate(activation, vector).intoArray(values, i);
+        }
+
+        for (; i < to; i++) {
+            values[i] = activation.activate(values[i]);
+        }
+    }
+
+    private static DoubleVector activate(Activation activation, DoubleVector vector) {
+        return switch (activation) {
+            case Sigmoid -> ONE.div(vector.neg().lanewise(VectorOperators.EXP).add(1.0));
+            case Tanh -> vector.lanewise(VectorOperators.TANH);
+            case ReLU -> vector.max(0.0);
+            case LeakyReLU -> vector.max(vector.mul(0.01));
+            case None -> vector;
+        };
+    }
+
+    @Override
+    public String getName() {
+        return "vector (" + SPECIES.length() + " lanes)";
+    }
+}